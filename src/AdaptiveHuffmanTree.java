@@ -0,0 +1,211 @@
+/*
+* A Huffman Tree that is updated one character at a time (the FGK algorithm),
+* for encoding a stream in one pass without a header. The encoder and the
+* decoder start with the same tree and make the same update after every
+* character, so the decoder always knows the tree the encoder used.
+*
+* The tree starts with only the NYT (not yet transmitted) leaf. A character
+* that has not been seen before is sent as the path to the NYT leaf followed
+* by the character in SYMBOL_BITS bits, then the NYT leaf is split into a new
+* NYT leaf and a leaf for the character. The END symbol is sent the same way
+* to mark the end of the stream.
+*
+* The nodes are kept in an array in order of their number. A node's weight is
+* never more than the weight of a node with a higher number and siblings have
+* numbers next to each other (the sibling property), so a node can be moved by
+* swapping it with the highest numbered node of the same weight.
+ */
+import java.util.*;
+
+public class AdaptiveHuffmanTree {
+    static final int END = HuffmanTree.ALPHABET;        //marks the end of the stream, not a character
+    static final int SYMBOLS = HuffmanTree.ALPHABET + 1;
+    static final int SYMBOL_BITS = 9;                   //the bits sent for a new character or END
+    static final int NYT = -1;                          //the data in the NYT leaf
+    private static final int NON_LEAF = -2;             //the data in non-leaf nodes
+    private static final int ROOT = 2 * SYMBOLS;        //the number of the root, the highest number
+
+    private long[] weight;
+    private int[] parent;
+    private int[] left;
+    private int[] right;
+    private int[] data;
+    private int[] leaf;     //the number of each symbol's leaf, -1 if it has not been seen
+    private int nyt;        //the number of the NYT leaf
+    private int current;    //the value is changed by the move methods
+
+    /**
+     * A tree with only the NYT leaf
+     */
+    public AdaptiveHuffmanTree() {
+        weight = new long[ROOT + 1];
+        parent = new int[ROOT + 1];
+        left = new int[ROOT + 1];
+        right = new int[ROOT + 1];
+        data = new int[ROOT + 1];
+        leaf = new int[SYMBOLS];
+        Arrays.fill(leaf, -1);
+        nyt = ROOT;
+        parent[ROOT] = -1;
+        data[ROOT] = NYT;
+        current = ROOT;
+    }
+
+    /**
+     * @param c a character or END
+     * @return true if c has its own leaf, false if it is sent through the NYT leaf
+     */
+    public boolean contains(int c) {
+        return leaf[c] >= 0;
+    }
+
+    /**
+     * Finds the path from the root to the leaf of a symbol, or to the NYT
+     * leaf if the symbol has not been seen
+     * @param c a character or END
+     * @param path where the path is stored, 0 for left and 1 for right
+     * @return the length of the path
+     * PRE: path.length >= SYMBOLS
+     */
+    public int pathTo(int c, int[] path) {
+        int node = contains(c) ? leaf[c] : nyt;
+        int length = 0;
+        while(node != ROOT) {
+            int up = parent[node];
+            path[length++] = right[up] == node ? 1 : 0;
+            node = up;
+        }
+
+        //the path was found from the leaf up, turn it around
+        for(int i = 0, j = length - 1; i < j; i++, j--) {
+            int bit = path[i];
+            path[i] = path[j];
+            path[j] = bit;
+        }
+        return length;
+    }
+
+    /**
+     * Adds one to the weight of a symbol and moves the nodes to keep the
+     * sibling property
+     * @param c the character or END that was just sent
+     */
+    public void update(int c) {
+        int q = leaf[c];
+        if(q < 0) {
+            //the NYT leaf becomes the parent of a new NYT leaf and the new leaf
+            int old = nyt;
+            nyt = old - 2;
+            q = old - 1;
+            data[old] = NON_LEAF;
+            left[old] = nyt;
+            right[old] = q;
+            makeLeaf(nyt, NYT, old);
+            makeLeaf(q, c, old);
+            leaf[c] = q;
+        }
+
+        while(q != -1) {
+            //move q to the highest number with its weight before adding to it
+            int leader = q;
+            while(leader < ROOT && weight[leader + 1] == weight[q]) {
+                leader++;
+            }
+            if(leader != q && leader != parent[q]) {
+                swap(q, leader);
+                q = leader;
+            }
+            weight[q]++;
+            q = parent[q];
+        }
+    }
+
+    /**
+     * Makes a leaf with no weight
+     * @param node the number of the leaf
+     * @param d the symbol of the leaf
+     * @param up the number of its parent
+     */
+    private void makeLeaf(int node, int d, int up) {
+        weight[node] = 0;
+        parent[node] = up;
+        data[node] = d;
+    }
+
+    /**
+     * Swaps the subtrees at two numbers. Each number keeps its parent, the
+     * contents of the nodes trade places.
+     * @param a the number of one node
+     * @param b the number of the other node
+     * PRE: neither node is an ancestor of the other
+     */
+    private void swap(int a, int b) {
+        long w = weight[a];
+        weight[a] = weight[b];
+        weight[b] = w;
+        int t = data[a];
+        data[a] = data[b];
+        data[b] = t;
+        t = left[a];
+        left[a] = left[b];
+        left[b] = t;
+        t = right[a];
+        right[a] = right[b];
+        right[b] = t;
+        relink(a);
+        relink(b);
+    }
+
+    /**
+     * Points the children or the leaf of a symbol at a node that moved
+     * @param node the new number of the node
+     */
+    private void relink(int node) {
+        if(data[node] == NON_LEAF) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if(data[node] == NYT) {
+            nyt = node;
+        } else {
+            leaf[data[node]] = node;
+        }
+    }
+
+    /**
+     * Moves the current node to the root
+     */
+    public void moveToRoot() {
+        current = ROOT;
+    }
+
+    /**
+     * Moves the current node to its left child
+     * PRE: the current node is not a leaf
+     */
+    public void moveToLeft() {
+        current = left[current];
+    }
+
+    /**
+     * Moves the current node to its right child
+     * PRE: the current node is not a leaf
+     */
+    public void moveToRight() {
+        current = right[current];
+    }
+
+    /**
+     * @return true if the current node is a leaf
+     */
+    public boolean atLeaf() {
+        return data[current] != NON_LEAF;
+    }
+
+    /**
+     * @return the symbol of the current leaf, NYT for the NYT leaf
+     * PRE: the current node is a leaf
+     */
+    public int current() {
+        return data[current];
+    }
+}
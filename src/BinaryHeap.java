@@ -2,11 +2,13 @@
 * Implements a binary heap where the heap rule is the value in the parent
 * node is less than or equal to the values in the child nodes. The
 * implementation uses parallel arrays to store the priorities and the
-* trees.
+* nodes, which are indexes of the nodes of one HuffmanTree that is being
+* built.
 */
 public class BinaryHeap {
-    int[] priority;
-    HuffmanTree[] trees;
+    long[] priority;
+    int[] trees;
+    HuffmanTree tree;   //the tree the nodes in trees belong to
     int size;
 
     /**
@@ -14,8 +16,9 @@ public class BinaryHeap {
      * @param s the size of the heap
      */
     public BinaryHeap(int s) {
-        priority = new int[s + 1];
-        trees = new HuffmanTree[s + 1];
+        priority = new long[s + 1];
+        trees = new int[s + 1];
+        tree = new HuffmanTree(2 * s - 1);
         size = 0;
     }
 
@@ -24,85 +27,32 @@ public class BinaryHeap {
      * PRE: size != 0
      */
     public void removeMin() {
-        //place the last node at the index 0
-        priority[0] = priority[size];
-        trees[0] = trees[size];
-
-        //make last node null and decrement size
+        //take the last node out and make the root its starting place
+        long p = priority[size];
+        int t = trees[size];
         priority[size] = 0;
-        trees[size] = null;
+        trees[size] = 0;
         size--;
-        int leftChild, rightChild, least;
 
-        //the position of the node that needs changing
+        //move the lesser child up until the last node fits, a node at the
+        //end of the heap may have only a left child
         int targetNode = 1;
-        while(targetNode * 2 < size && targetNode * 2 + 1 <= size) {
-            //while there is a child node
-            leftChild = getLeftChild(targetNode);
-            rightChild = getRightChild(targetNode);
-
-            //find the lesser priority node and change node at target position
-            int lesser = leftChild <= rightChild ? 2 * targetNode : 2 * targetNode + 1;
-            if(priority[lesser] <= priority[0]) {
-                priority[targetNode] = priority[lesser];
-                trees[targetNode] = trees[lesser];
-                targetNode = lesser;
-            } else {
-                priority[targetNode] = priority[0];
-                trees[targetNode] = trees[0];
+        while(2 * targetNode <= size) {
+            int lesser = 2 * targetNode;
+            if(lesser + 1 <= size && priority[lesser + 1] < priority[lesser]) {
+                lesser++;
+            }
+            if(priority[lesser] >= p) {
                 break;
             }
+            priority[targetNode] = priority[lesser];
+            trees[targetNode] = trees[lesser];
+            targetNode = lesser;
         }
-
-        //special case where there is only one child node
-        if (size == 2) {
-            int greater;
-            if(priority[2] < priority[0]) {
-                least = 2;
-                greater = 0;
-            } else {
-                least = 0;
-                greater = 2;
-            }
-
-            //swap nodes
-            priority[1] = priority[least];
-            trees[1] = trees[least];
-            priority[2] = priority[greater];
-            trees[2] = trees[greater];
-            priority[0] = 0;
-            trees[0] = null;
-            return;
+        if(size > 0) {
+            priority[targetNode] = p;
+            trees[targetNode] = t;
         }
-
-        //set the node at the target index 0 to appropriate node
-        //and reset the values at the index 0 to null
-        priority[targetNode] = priority[0];
-        trees[targetNode] = trees[0];
-        priority[0] = 0;
-        trees[0] = null;
-    }
-
-    /**
-     * A method to get the left child of a parent "i" in a binary heap
-     * @param i the parent of the left child
-     * @return index of left child
-     */
-    private int getLeftChild(int i) {
-        if(i * 2 > size)
-            return 0;
-        return priority[2 * i];
-    }
-
-    /**
-     * A method to get the right child of a parent "i" in a binary heap
-     * @param i the parent of the right child
-     * @return index of right child
-     */
-    private int getRightChild(int i) {
-        if(i * 2 + 1 > size)
-            return 0;
-        return priority[2 * i + 1];
     }
 
     /**
@@ -110,16 +60,16 @@ public class BinaryHeap {
      * @return the priority in the root of the heap
      * PRE: size != 0
      */
-    public int getMinPriority() {
+    public long getMinPriority() {
         return priority[1];
     }
 
     /**
      * get the priority tree of the heap
-     * @return the tree in the root of the heap
+     * @return the index of the node in the root of the heap
      * PRE: size != 0
      */
-    public HuffmanTree getMinTree() {
+    public int getMinTree() {
         return trees[1];
     }
 
@@ -128,20 +78,15 @@ public class BinaryHeap {
      * @return true if heap is full
      */
     public boolean full() {
-        for(int i = 1; i < trees.length; i++) {
-            if (trees[i] == null) {
-                return false;
-            }
-        }
-        return true;
+        return size == trees.length - 1;
     }
 
     /**
      * Inserts a node into the parallel arrays, using a binary heap-style implementation
      * @param p the priority value
-     * @param t the tree
+     * @param t the index of the node
      */
-    public void insert(int p, HuffmanTree t) {
+    public void insert(long p, int t) {
         //increment size of heap and insert values into the last nodes.
         size++;
         priority[size] = p;
@@ -149,8 +94,8 @@ public class BinaryHeap {
 
         //Starting with the last node, compare priorities and switch.
         for(int target = size; priority[target] < priority[target/2]; target /= 2) {
-            int tempPri = priority[target/2];
-            HuffmanTree tempTree = trees[target/2];
+            long tempPri = priority[target/2];
+            int tempTree = trees[target/2];
             priority[target/2] = priority[target];
             trees[target/2] = trees[target];
             priority[target] = tempPri;
@@ -0,0 +1,468 @@
+/*
+* Encodes or decodes many files in one run, so a large drop of files does not
+* pay for starting a JVM per file. The files are handed to a fixed pool of
+* worker threads, and at most two files per thread are in flight at a time:
+* walking a huge directory waits for the workers instead of queueing up more
+* files than they can take. Each worker keeps its own HuffmanEncoder or
+* HuffmanDecoder, so the tables and buffers are reused from file to file.
+*
+* Each file is encoded in the BLOCKS layout, either into a file of its own
+* (its name with .huf added) under the output directory, or as a member of
+* one archive:
+*     header    a HuffmanFormat header with the ARCHIVE layout
+*     members   each a whole file of blocks: header, blocks and block index
+*     directory int the number of members, then the name (as written by
+*               writeUTF), offset and size of each member
+*     long      the offset of the directory
+* The directory lets the members be found without reading them, and each
+* member keeps its block index, so its blocks can be found the same way as
+* in a file of blocks.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+public class HuffmanBatch {
+    static final String EXTENSION = ".huf";
+    static final long MAX_IN_MEMORY = 64 << 20;     //larger files are encoded straight into the archive
+
+    private int threads;
+    private int blockSize;
+    private ThreadLocal<HuffmanEncoder> encoders;
+    private ThreadLocal<HuffmanDecoder> decoders;
+    private AtomicLong done;        //the files done
+    private AtomicLong failed;      //the files that could not be done
+    private AtomicLong read;        //the bytes read from the input files
+    private AtomicLong written;     //the bytes written to the output files
+
+    /**
+     * A batch that encodes or decodes on a pool of worker threads
+     * @param threads the number of files worked on at the same time
+     * @param blockSize the largest number of characters in a block
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @param pairs the most pairs of characters each block may code as one,
+     *        0 for none
+     * @param clusters the most codes each block may choose between by the
+     *        previous character, 0 for one code
+     */
+    public HuffmanBatch(int threads, int blockSize, int maxLength, int pairs, int clusters) {
+        this.threads = threads;
+        this.blockSize = blockSize;
+        encoders = ThreadLocal.withInitial(() -> new HuffmanEncoder(maxLength, pairs, clusters));
+        decoders = ThreadLocal.withInitial(HuffmanDecoder::new);
+        done = new AtomicLong();
+        failed = new AtomicLong();
+        read = new AtomicLong();
+        written = new AtomicLong();
+    }
+
+    /**
+     * Lists the files to work on
+     * @param input a directory, whose files are all listed, or a file that
+     *        names one file per line
+     * @param output the output directory or archive, which is left out, so
+     *        files written while a directory is walked are not listed
+     * @return the files, listed lazily
+     */
+    static Stream<Path> list(Path input, Path output) throws IOException {
+        Path skipped = output.toAbsolutePath().normalize();
+        Stream<Path> files;
+        if(Files.isDirectory(input)) {
+            files = Files.walk(input).filter(Files::isRegularFile);
+        } else {
+            files = Files.lines(input).filter(line -> !line.isEmpty()).map(Paths::get);
+        }
+        return files.filter(file -> !file.toAbsolutePath().normalize().startsWith(skipped));
+    }
+
+    /**
+     * @param input the directory or list the file was found through
+     * @param file the file
+     * @return the name the file is stored under, relative to the directory
+     *         and with / between its parts
+     */
+    static String nameOf(Path input, Path file) {
+        Path name = Files.isDirectory(input) ? input.relativize(file) : file;
+        if(name.getRoot() != null) {
+            name = name.getRoot().relativize(name);
+        }
+        return name.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Finds where a stored file goes in the output directory
+     * @param output the output directory
+     * @param name the name the file is stored under
+     * @return the path of the file, which is never outside output
+     */
+    static Path resolve(Path output, String name) throws IOException {
+        Path base = output.toAbsolutePath().normalize();
+        Path target = base.resolve(name).normalize();
+        if(!target.startsWith(base) || target.equals(base)) {
+            throw new IOException("the name " + name + " is outside the output directory");
+        }
+        return target;
+    }
+
+    /**
+     * Encodes every file into a file of its own under the output directory.
+     * If a file cannot be encoded, what was written of its encoded file is
+     * deleted.
+     * @param input a directory or a file that names one file per line
+     * @param output the output directory
+     */
+    public void encode(Path input, Path output) throws IOException {
+        Files.createDirectories(output);
+        run(input, output, file -> {
+            Path target = resolve(output, nameOf(input, file) + EXTENSION);
+            Files.createDirectories(target.getParent());
+            try(InputStream in = Files.newInputStream(file);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), 1 << 16)) {
+                written.addAndGet(encoders.get().encode(in, out, blockSize));
+            } catch(IOException | RuntimeException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            read.addAndGet(Files.size(file));
+            return null;
+        }, (file, member) -> {});
+    }
+
+    /**
+     * Encodes every file into one archive. The members are written in the
+     * order the files were listed. If the archive cannot be finished, what
+     * was written of it is deleted.
+     * @param input a directory or a file that names one file per line
+     * @param output the archive
+     */
+    public void encodeArchive(Path input, Path output) throws IOException {
+        try(DataOutputStream archive = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+            List<String> names = new ArrayList<>();
+            List<Long> sizes = new ArrayList<>();
+            HuffmanFormat.write(archive, HuffmanFormat.ARCHIVE);
+
+            run(input, output, file -> {
+                //a small file is encoded by a worker, a large one when its turn to be written comes
+                if(Files.size(file) > MAX_IN_MEMORY) {
+                    return null;
+                }
+                ByteArrayOutputStream member = new ByteArrayOutputStream();
+                try(InputStream in = Files.newInputStream(file)) {
+                    encoders.get().encode(in, member, blockSize);
+                }
+                read.addAndGet(Files.size(file));
+                return member.toByteArray();
+            }, (file, member) -> {
+                long size;
+                if(member != null) {
+                    archive.write(member);
+                    size = member.length;
+                } else {
+                    try(InputStream in = Files.newInputStream(file)) {
+                        size = encoders.get().encode(in, archive, blockSize);
+                    }
+                    read.addAndGet(Files.size(file));
+                }
+                names.add(nameOf(input, file));
+                sizes.add(size);
+                written.addAndGet(size);
+            });
+
+            //the members follow each other straight after the header
+            archive.writeInt(names.size());
+            long position = HuffmanFormat.HEADER_BYTES;
+            for(int i = 0; i < names.size(); i++) {
+                archive.writeUTF(names.get(i));
+                archive.writeLong(position);
+                archive.writeLong(sizes.get(i));
+                position += sizes.get(i);
+            }
+            archive.writeLong(position);
+        } catch(IOException | RuntimeException e) {
+            //an archive without its directory cannot be read, so none is left behind
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes every member of an archive into a file under the output directory
+     * @param input the archive
+     * @param output the output directory
+     */
+    public void decodeArchive(Path input, Path output) throws IOException {
+        try(FileChannel archive = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(HuffmanFormat.HEADER_BYTES, archive.size()));
+            HuffmanBlockIndex.readFully(archive, header, 0);
+            HuffmanFormat.expect(new ByteArrayInputStream(header.array(), 0, header.limit()), HuffmanFormat.ARCHIVE);
+
+            //the directory is between the members and the offset at the end
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            HuffmanBlockIndex.readFully(archive, trailer, archive.size() - 8);
+            long position = trailer.getLong(0);
+            if(position < HuffmanFormat.HEADER_BYTES || position > archive.size() - 12
+                    || archive.size() - 8 - position > Integer.MAX_VALUE) {
+                throw new IOException("corrupt archive directory");
+            }
+            ByteBuffer directory = ByteBuffer.allocate((int) (archive.size() - 8 - position));
+            HuffmanBlockIndex.readFully(archive, directory, position);
+            DataInputStream d = new DataInputStream(new ByteArrayInputStream(directory.array()));
+            int count = d.readInt();
+            Map<Path, long[]> members = new LinkedHashMap<>();
+            for(int i = 0; i < count; i++) {
+                String name = d.readUTF();
+                long offset = d.readLong();
+                long size = d.readLong();
+                if(offset < HuffmanFormat.HEADER_BYTES || size < 0 || offset + size > position) {
+                    throw new IOException("corrupt archive directory");
+                }
+                members.put(Paths.get(name), new long[] {offset, size});
+            }
+
+            Files.createDirectories(output);
+            run(members.keySet().stream(), file -> {
+                long[] member = members.get(file);
+                decodeMember(archive, member[0], member[1], resolve(output, file.toString()));
+                read.addAndGet(member[1]);
+                return null;
+            }, (file, unused) -> {});
+        }
+    }
+
+    /**
+     * Decodes every .huf file under a directory into a file under the output
+     * directory
+     * @param input the directory
+     * @param output the output directory
+     */
+    public void decode(Path input, Path output) throws IOException {
+        Files.createDirectories(output);
+        try(Stream<Path> files = list(input, output).filter(file -> file.toString().endsWith(EXTENSION))) {
+            run(files, file -> {
+                String name = nameOf(input, file);
+                Path target = resolve(output, name.substring(0, name.length() - EXTENSION.length()));
+                try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    decodeMember(in, 0, in.size(), target);
+                }
+                read.addAndGet(Files.size(file));
+                return null;
+            }, (file, unused) -> {});
+        }
+    }
+
+    /**
+     * Decodes a file of blocks, or a member of an archive, one block at a
+     * time. If it cannot be decoded, what was written of the target is deleted.
+     * @param input the file
+     * @param start the position of the blocks' header in the file
+     * @param size the number of bytes of the blocks and their index
+     * @param target the file the characters are written to
+     */
+    private void decodeMember(FileChannel input, long start, long size, Path target) throws IOException {
+        HuffmanDecode.readBlocksHeader(input, start, size);
+        HuffmanBlockIndex index = HuffmanBlockIndex.read(input, start, size);
+        Files.createDirectories(target.getParent());
+        try(OutputStream out = Files.newOutputStream(target)) {
+            for(int i = 0; i < index.size(); i++) {
+                out.write(HuffmanDecode.readBlock(decoders.get(), input, index, i));
+            }
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        written.addAndGet(index.getTotalLength());
+    }
+
+    /**
+     * The work done for one file by a worker thread
+     */
+    interface Task<T> {
+        T run(Path file) throws IOException;
+    }
+
+    /**
+     * The work done for one file, in the order of the files, once its task
+     * is done
+     */
+    interface Finish<T> {
+        void run(Path file, T result) throws IOException;
+    }
+
+    /**
+     * Lists the files of a directory or list and works on them
+     * @param input a directory or a file that names one file per line
+     * @param output the output directory or archive, which is not listed
+     * @param task the work done for each file by a worker thread
+     * @param finish the work done for each file, in order, after its task
+     */
+    private <T> void run(Path input, Path output, Task<T> task, Finish<T> finish) throws IOException {
+        try(Stream<Path> files = list(input, output)) {
+            run(files, task, finish);
+        }
+    }
+
+    /**
+     * Works on files on the pool of worker threads, with at most two files
+     * per thread in flight. A file whose task fails is reported and skipped;
+     * a failure in finish stops the batch.
+     * @param files the files
+     * @param task the work done for each file by a worker thread
+     * @param finish the work done for each file, in order, after its task
+     */
+    private <T> void run(Stream<Path> files, Task<T> task, Finish<T> finish) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Path> pendingFiles = new ArrayDeque<>();
+        ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+        Iterator<Path> next = files.iterator();
+        try {
+            while(next.hasNext() || !pending.isEmpty()) {
+                while(next.hasNext() && pending.size() < 2 * threads) {
+                    Path file = next.next();
+                    pendingFiles.add(file);
+                    pending.add(pool.submit(() -> task.run(file)));
+                }
+                Path file = pendingFiles.remove();
+                T result;
+                try {
+                    result = HuffmanEncode.await(pending.remove());
+                } catch(InterruptedIOException e) {
+                    throw e;
+                } catch(IOException e) {
+                    failed.incrementAndGet();
+                    System.out.println(file + ": " + e);
+                    continue;
+                }
+                finish.run(file, result);
+                done.incrementAndGet();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints the number of files and bytes and the throughput of the batch
+     * @param nanos the time the batch took
+     */
+    public void report(long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%d files, %d failed, %d bytes read, %d bytes written in %.3f s, %.1f MB/s%n",
+                done.get(), failed.get(), read.get(), written.get(), seconds,
+                seconds == 0 ? 0 : Math.max(read.get(), written.get()) / seconds / (1 << 20));
+    }
+
+    /**
+     * @return the number of files that could not be encoded or decoded
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Encodes or decodes a batch of files
+     * @param args
+     *   args[0] is a directory of files, or a file that names one file per line
+     *   args[1] is the output directory, or the archive with -archive
+     *   -archive writes one archive instead of a file for each file
+     *   -decode decodes an archive, or a directory of .huf files, into the
+     *   output directory
+     *   -threads n sets the number of files worked on at the same time
+     *   (default the number of processors)
+     *   -block n sets the number of characters in a block (default 1 MB)
+     *   -maxlength n limits the codes to n bits, from 8 to 63 (default no limit)
+     *   -pairs n lets each block give up to n of its most frequent pairs of
+     *   characters codes of their own (at most 256)
+     *   -contexts n lets each block code each character with one of n codes,
+     *   chosen by the character before it (at most 16)
+     *   -stats prints the time of each stage to standard error when done
+     * The exit status is 1 if any file failed or an error stopped the batch.
+     */
+    public static void main(String[] args) {
+        boolean archive = false;
+        boolean decode = false;
+        boolean stats = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int blockSize = 1 << 20;
+        int maxLength = 0;
+        int pairs = 0;
+        int clusters = 0;
+        int i = 0;
+        for(; i < args.length - 2; i++) {
+            if(args[i].equals("-archive")) {
+                archive = true;
+            } else if(args[i].equals("-decode")) {
+                decode = true;
+            } else if(args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-block")) {
+                blockSize = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-maxlength")) {
+                maxLength = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-pairs")) {
+                pairs = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-contexts")) {
+                clusters = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-stats")) {
+                stats = true;
+            }
+        }
+        try {
+            HuffmanEncode.checkLimit(maxLength);
+        } catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        if(blockSize < 1 || threads < 1) {
+            System.out.println("-block and -threads must be at least 1");
+            System.exit(1);
+        }
+        if(blockSize > HuffmanEncoder.MAX_BLOCK) {
+            System.out.println("-block must be at most " + HuffmanEncoder.MAX_BLOCK);
+            System.exit(1);
+        }
+        if(pairs < 0 || pairs > HuffmanEncoder.MAX_PAIRS) {
+            System.out.println("-pairs must be from 0 to " + HuffmanEncoder.MAX_PAIRS);
+            System.exit(1);
+        }
+        if(clusters < 0 || clusters > HuffmanEncoder.MAX_CLUSTERS) {
+            System.out.println("-contexts must be from 0 to " + HuffmanEncoder.MAX_CLUSTERS);
+            System.exit(1);
+        }
+        HuffmanStats metrics = stats ? HuffmanStats.install() : null;
+        HuffmanBatch batch = new HuffmanBatch(threads, blockSize, maxLength, pairs, clusters);
+        Path input = Paths.get(args[i]);
+        Path output = Paths.get(args[i + 1]);
+        long began = System.nanoTime();
+        boolean stopped = false;        //an error ended the whole batch
+        try {
+            if(decode && Files.isDirectory(input)) {
+                batch.decode(input, output);
+            } else if(decode) {
+                batch.decodeArchive(input, output);
+            } else if(archive) {
+                batch.encodeArchive(input, output);
+            } else {
+                batch.encode(input, output);
+            }
+        } catch(IOException e) {
+            System.out.println(e);
+            stopped = true;
+        } catch(UncheckedIOException e) {
+            //walking the directory failed part way
+            System.out.println(e.getCause());
+            stopped = true;
+        }
+        batch.report(System.nanoTime() - began);
+        if(metrics != null) {
+            metrics.report(System.err, System.nanoTime() - began);
+        }
+        if(stopped || batch.getFailed() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+* Measures every stage of the codec, and encoding and decoding a whole block,
+* on generated data of several kinds and sizes. Each stage is warmed up first
+* and then run until enough time has passed to give a stable throughput; the
+* bytes allocated by the stage are reported with it.
+*
+* Each stage returns a value made from what it computed. Every run must give
+* the same value as the first, and the values of all the stages are summed
+* into a sink printed at the end, so the JIT cannot drop a stage's work as
+* unused.
+ */
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+public class HuffmanBenchmark {
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private static long sink;       //the sum of the results of every stage
+
+    /**
+     * A stage of the codec
+     */
+    private interface Stage {
+        /**
+         * @return a value made from the result of the stage, the same for
+         *         every run
+         */
+        long run() throws IOException;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Generates the data for a benchmark
+     * @param kind uniform, skewed, english or random
+     * @param size the number of bytes
+     * @return the data
+     */
+    static byte[] generate(String kind, int size) {
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        switch(kind) {
+            case "uniform":
+                //64 printable characters, all equally likely
+                for(int i = 0; i < size; i++) {
+                    data[i] = (byte) ('0' + random.nextInt(64));
+                }
+                break;
+            case "skewed":
+                //each character half as likely as the one before it
+                for(int i = 0; i < size; i++) {
+                    data[i] = (byte) ('a' + Math.min(Long.numberOfTrailingZeros(random.nextLong() | 1L << 40), 40));
+                }
+                break;
+            case "english":
+                String[] words = ("the of and to a in that is was he for it with as his on be at by i this had not "
+                        + "are but from or have an they which one you were her all she there would their we him "
+                        + "been has when who will more no if out so said what up its about into than them can "
+                        + "only other new some could time these two may then do first any my now such like our "
+                        + "over man me even most made after also did many before must through back years where").split(" ");
+                int i = 0;
+                while(i < size) {
+                    String word = words[(int) (words.length * Math.pow(random.nextDouble(), 2))];
+                    for(int j = 0; j < word.length() && i < size; j++) {
+                        data[i++] = (byte) word.charAt(j);
+                    }
+                    if(i < size) {
+                        data[i++] = (byte) (random.nextInt(12) == 0 ? (random.nextBoolean() ? '.' : ',') : ' ');
+                    }
+                    if(i < size && random.nextInt(80) == 0) {
+                        data[i++] = '\n';
+                    }
+                }
+                break;
+            default:
+                random.nextBytes(data);
+        }
+        return data;
+    }
+
+    /**
+     * Runs a stage until its time is up, checking that every run gives the
+     * same result, and adds the result to the sink
+     * @param stage the stage
+     * @param nanos how long to run it
+     * @return the number of runs
+     * @throws IllegalStateException if a run gives a different result
+     */
+    private static long runFor(Stage stage, long nanos) throws IOException {
+        long result = stage.run();
+        long runs = 1;
+        long end = System.nanoTime() + nanos;
+        while(System.nanoTime() < end) {
+            if(stage.run() != result) {
+                throw new IllegalStateException("a run of the stage gave a different result");
+            }
+            runs++;
+        }
+        sink += result;
+        return runs;
+    }
+
+    /**
+     * Measures a stage and prints its throughput and allocation rate
+     * @param name the name of the stage
+     * @param data the kind and size of the data
+     * @param bytes the number of input bytes the stage handles each run
+     * @param stage the stage
+     */
+    private static void measure(String name, String data, long bytes, Stage stage) throws IOException {
+        runFor(stage, WARMUP_NANOS);
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long runs = runFor(stage, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-16s %-18s %12.1f %14.1f %14.0f%n", name, data,
+                bytes * runs / 1e6 / seconds, allocated / 1e6 / seconds, (double) allocated / runs);
+    }
+
+    /**
+     * Runs every stage on every kind and size of data
+     * @param args the sizes of the data in bytes (default 65536 1048576 16777216)
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1 << 16, 1 << 20, 1 << 24};
+        if(args.length > 0) {
+            sizes = new int[args.length];
+            for(int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        String[] kinds = {"uniform", "skewed", "english", "random"};
+        System.out.printf("%-16s %-18s %12s %14s %14s%n", "stage", "data", "MB/s", "alloc MB/s", "alloc B/op");
+
+        for(int size : sizes) {
+            for(String kind : kinds) {
+                byte[] data = generate(kind, size);
+                String name = kind + "/" + size;
+                long[] frequencies = HuffmanHistogram.count(data, size);
+                HuffmanTree tree = HuffmanEncode.createHuffmanTree(frequencies);
+                HuffmanCode code = new HuffmanCode(tree);
+                long[] codes = code.getCodes();
+                int[] lengths = code.getLengths();
+                String[] paths = tree.pathsToLeaves();
+                ByteArrayOutputStream encodedBits = new ByteArrayOutputStream();
+                HuffmanOutputStream bitWriter = new HuffmanOutputStream(encodedBits);
+                for(int i = 0; i < size; i++) {
+                    bitWriter.writeBits(codes[data[i] & 0xFF], lengths[data[i] & 0xFF]);
+                }
+                bitWriter.close();
+                byte[] bits = encodedBits.toByteArray();
+                long bitCount = bitWriter.getBitCount();
+                byte[] block = HuffmanEncode.encodeBlock(data, size, 0, 0, 0);
+                byte[] decoded = new byte[size];
+                HuffmanEncoder encoder = new HuffmanEncoder();
+                HuffmanEncoder modelEncoder = new HuffmanEncoder(12, HuffmanEncoder.MAX_PAIRS,
+                        HuffmanEncoder.MAX_CLUSTERS);
+                HuffmanDecoder decoder = new HuffmanDecoder();
+                byte[] encodedBlock = new byte[HuffmanEncoder.maxEncodedLength(size)];
+
+                //the stages run on the whole data once, so the tree stages are per data size
+                measure("frequencies", name, size, () -> HuffmanHistogram.count(data, size)[data[0] & 0xFF]);
+                measure("heap+tree", name, size,
+                        () -> HuffmanEncode.createHuffmanTree(HuffmanEncode.createHeap(frequencies)).size());
+                measure("two queues", name, size, () -> HuffmanEncode.createHuffmanTree(frequencies).size());
+                measure("pathsToLeaves", name, size, () -> tree.pathsToLeaves()[data[0] & 0xFF].length());
+                measure("canonical code", name, size, () -> new HuffmanCode(tree).headerBytes());
+                measure("writeBit", name, size, () -> {
+                    HuffmanOutputStream out = new HuffmanOutputStream(OutputStream.nullOutputStream());
+                    for(int i = 0; i < size; i++) {
+                        String path = paths[data[i] & 0xFF];
+                        for(int j = 0; j < path.length(); j++) {
+                            out.writeBit(path.charAt(j));
+                        }
+                    }
+                    out.close();
+                    return out.getBitCount();
+                });
+                measure("writeBits", name, size, () -> {
+                    HuffmanOutputStream out = new HuffmanOutputStream(OutputStream.nullOutputStream());
+                    for(int i = 0; i < size; i++) {
+                        out.writeBits(codes[data[i] & 0xFF], lengths[data[i] & 0xFF]);
+                    }
+                    out.close();
+                    return out.getBitCount();
+                });
+                measure("readBit", name, size, () -> {
+                    HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(bits));
+                    long ones = 0;
+                    for(long i = 0; i < bitCount; i++) {
+                        ones += in.readBit();
+                    }
+                    return ones;
+                });
+                measure("table decode", name, size, () -> {
+                    HuffmanDecode.decodeBlock(code, new HuffmanInputStream(new ByteArrayInputStream(bits)), decoded,
+                            size);
+                    return decoded[size - 1];
+                });
+                measure("encode block", name, size, () -> encoder.encode(data, 0, size, encodedBlock, 0));
+                measure("encode modeled", name, size, () -> modelEncoder.encode(data, 0, size, encodedBlock, 0));
+                measure("decode block", name, size, () -> decoder.decode(block, 0, block.length, decoded, 0));
+            }
+        }
+        System.out.println("sink " + sink);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+* The index at the end of a stream of encoded blocks. It records where each
+* block starts, how many encoded bits it has and how many characters it
+* decodes to, so blocks can be found and decoded independently. Every block
+* starts a new code, so each one is a point the decoder can start from: the
+* character at any position is found by decoding only the block that has it.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class HuffmanBlockIndex {
+    private long[] offsets;
+    private long[] bitLengths;
+    private int[] lengths;
+    private long[] starts;      //the position of the first character of each block
+    private long total;         //the number of characters in every block
+    private int size;
+    private long indexOffset;   //the offset of the index, which is also the end of the blocks
+
+    /**
+     * An empty index that blocks are added to
+     */
+    public HuffmanBlockIndex() {
+        offsets = new long[16];
+        bitLengths = new long[16];
+        lengths = new int[16];
+        starts = new long[16];
+        total = 0;
+        size = 0;
+        indexOffset = 0;
+    }
+
+    /**
+     * Adds the next block to the index
+     * @param offset the offset of the block from the start of the stream
+     * @param bitLength the number of encoded bits in the block
+     * @param length the number of characters in the block
+     */
+    public void add(long offset, long bitLength, int length) {
+        if(size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            bitLengths = Arrays.copyOf(bitLengths, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+        }
+        offsets[size] = offset;
+        bitLengths[size] = bitLength;
+        lengths[size] = length;
+        starts[size] = total;
+        total += length;
+        size++;
+    }
+
+    /**
+     * Writes the index
+     *     int   the number of blocks
+     *     long  the offset of each block from the start of the stream
+     *     long  the number of encoded bits in each block
+     *     int   the number of characters in each block
+     *     long  the offset of the index
+     * @param d the stream positioned at the end of the blocks
+     * @param position the offset of the index from the start of the stream
+     */
+    public void write(DataOutputStream d, long position) throws IOException {
+        indexOffset = position;
+        d.writeInt(size);
+        for(int i = 0; i < size; i++) {
+            d.writeLong(offsets[i]);
+            d.writeLong(bitLengths[i]);
+            d.writeInt(lengths[i]);
+        }
+        d.writeLong(indexOffset);
+    }
+
+    /**
+     * Reads an index written by write() from a stream and checks that it
+     * matches this one, made from the blocks just read from the stream
+     * @param d the stream positioned at the end of the blocks
+     * @param position the offset of the index from the start of the stream
+     * @throws IOException if the index is cut short or does not match
+     */
+    public void check(DataInputStream d, long position) throws IOException {
+        try {
+            boolean matches = d.readInt() == size;
+            for(int i = 0; i < size && matches; i++) {
+                matches = d.readLong() == offsets[i] && d.readLong() == bitLengths[i] && d.readInt() == lengths[i];
+            }
+            if(!matches || d.readLong() != position) {
+                throw new IOException("corrupt block index");
+            }
+        } catch(EOFException e) {
+            throw new EOFException("the file ends inside its block index");
+        }
+    }
+
+    /**
+     * Reads the index from the end of a file of encoded blocks
+     * @param file the file
+     * @return the index of the blocks in the file
+     */
+    public static HuffmanBlockIndex read(FileChannel file) throws IOException {
+        return read(file, 0, file.size());
+    }
+
+    /**
+     * Reads the index of a stream of encoded blocks stored inside a file, such
+     * as a member of a HuffmanBatch archive. The offsets in the index are
+     * moved to be from the start of the file.
+     * @param file the file
+     * @param start the position in the file of the start of the stream
+     * @param size the number of bytes in the stream
+     * @return the index of the blocks in the stream
+     */
+    public static HuffmanBlockIndex read(FileChannel file, long start, long size) throws IOException {
+        if(size < 16) {
+            throw new EOFException("the file is too short for a block index");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(8);
+        readFully(file, trailer, start + size - 8);
+        long position = trailer.getLong(0);
+        if(position < 4 || position > size - 12) {
+            throw new IOException("corrupt block index");
+        }
+
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(file, count, start + position);
+        int blocks = count.getInt(0);
+        if(blocks < 0 || (long) blocks * 20 != size - 12 - position) {
+            throw new IOException("corrupt block index");
+        }
+        ByteBuffer entries = ByteBuffer.allocate(blocks * 20);
+        readFully(file, entries, start + position + 4);
+
+        HuffmanBlockIndex index = new HuffmanBlockIndex();
+        for(int i = 0; i < blocks; i++) {
+            index.add(start + entries.getLong(), entries.getLong(), entries.getInt());
+            if(index.bitLengths[i] < 0 || index.lengths[i] < 0 || index.lengths[i] > HuffmanEncoder.MAX_BLOCK) {
+                throw new IOException("corrupt block index");
+            }
+        }
+        index.indexOffset = start + position;
+
+        //the blocks follow each other from the header to the index, each the size its bits and length allow
+        long end = start + HuffmanFormat.HEADER_BYTES;
+        for(int i = 0; i < blocks; i++) {
+            long bytes = HuffmanEncoder.BLOCK_HEADER + (index.bitLengths[i] + 7) / 8;
+            if(index.offsets[i] != end || bytes != index.getSize(i)
+                    || bytes > HuffmanEncoder.maxEncodedLength(index.lengths[i])) {
+                throw new IOException("corrupt block index");
+            }
+            end += bytes;
+        }
+        if(end != index.indexOffset - 4) {
+            throw new IOException("corrupt block index");
+        }
+        return index;
+    }
+
+    /**
+     * Fills a buffer from a file starting at a position
+     * @param file the file
+     * @param buffer the buffer to fill
+     * @param position the position in the file of the first byte
+     */
+    static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = file.read(buffer, position);
+            if(read < 0) {
+                throw new EOFException("unexpected end of file");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @return the number of blocks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i the block
+     * @return the offset of block i from the start of the stream
+     */
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @param i the block
+     * @return the number of bytes block i takes in the stream
+     */
+    public long getSize(int i) {
+        return (i + 1 < size ? offsets[i + 1] : indexOffset - 4) - offsets[i];
+    }
+
+    /**
+     * @param i the block
+     * @return the number of encoded bits in block i
+     */
+    public long getBitLength(int i) {
+        return bitLengths[i];
+    }
+
+    /**
+     * @param i the block
+     * @return the number of characters in block i
+     */
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * @param i the block
+     * @return the position of the first character of block i in the decoded stream
+     */
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @return the number of characters the blocks decode to
+     */
+    public long getTotalLength() {
+        return total;
+    }
+
+    /**
+     * Finds the block that decodes to the character at a position
+     * @param position the position of the character in the decoded stream
+     * @return the block that has the character
+     * PRE: 0 <= position < getTotalLength()
+     */
+    public int find(long position) {
+        int i = Arrays.binarySearch(starts, 0, size, position);
+        //between two starts the character is in the block of the lower one
+        return i >= 0 ? i : -i - 2;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+* A canonical Huffman code. Only the length of each character's code is
+* needed to describe it: the codes are assigned in order of length and, for
+* equal lengths, in order of character, so the encoder and the decoder
+* rebuild the same codes from the lengths stored in the header. A code can be
+* set again with new lengths, so one object can be reused without allocating.
+ */
+import java.io.*;
+import java.util.*;
+
+public class HuffmanCode {
+    static final int MAX_LENGTH = 63;
+
+    private int[] lengths;      //the length of each character's code, 0 if it has no code
+    private long[] codes;       //the code of each character, the first bit in the most significant position
+    private int[] order;        //the characters with a code, in the order of their codes
+    private int count;          //the number of characters with a code
+    private int maxLength;
+    private int[] lengthCount;  //the number of codes of each length
+    private long[] next;        //the next code of each length
+
+    /**
+     * Makes an empty code that is given its lengths by set() or read()
+     * @param alphabet the number of different characters
+     */
+    public HuffmanCode(int alphabet) {
+        lengths = new int[alphabet];
+        codes = new long[alphabet];
+        order = new int[alphabet];
+        lengthCount = new int[MAX_LENGTH + 1];
+        next = new long[MAX_LENGTH + 1];
+    }
+
+    /**
+     * Makes the canonical code with the same code lengths as a HuffmanTree.
+     * A tree with a single leaf gets a code of length 1 so every character
+     * still takes at least one bit.
+     * @param tree the HuffmanTree
+     */
+    public HuffmanCode(HuffmanTree tree) {
+        this(tree, HuffmanTree.ALPHABET);
+    }
+
+    /**
+     * Makes the canonical code with the same code lengths as a HuffmanTree
+     * whose leaves may hold more than ALPHABET different characters
+     * @param tree the HuffmanTree
+     * @param alphabet the number of different characters
+     */
+    public HuffmanCode(HuffmanTree tree, int alphabet) {
+        this(treeLengths(tree, alphabet));
+    }
+
+    /**
+     * Makes the canonical code for the given code lengths
+     * @param lengths the length of each character's code, 0 if it has no code
+     * PRE: the lengths satisfy the Kraft inequality and are at most MAX_LENGTH
+     */
+    public HuffmanCode(int[] lengths) {
+        this(lengths.length);
+        set(lengths);
+    }
+
+    /**
+     * Finds the code lengths of a HuffmanTree, none for an empty tree
+     * @param tree the HuffmanTree
+     * @param alphabet the number of different characters
+     * @return the depth of each character's leaf
+     */
+    private static int[] treeLengths(HuffmanTree tree, int alphabet) {
+        long[] paths = new long[alphabet];
+        int[] lengths = new int[alphabet];
+        if(tree.size() == 0) {
+            return lengths;     //there were no characters to code
+        }
+        tree.moveToRoot();
+        if(tree.atLeaf()) {
+            lengths[tree.current()] = 1;
+        } else {
+            tree.codesToLeaves(paths, lengths);
+        }
+        return lengths;
+    }
+
+    /**
+     * Replaces the code with the canonical code for the given code lengths
+     * @param newLengths the length of each character's code, 0 if it has no
+     *        code, for at most as many characters as the code was made for
+     * PRE: the lengths satisfy the Kraft inequality and are at most MAX_LENGTH
+     */
+    public void set(int[] newLengths) {
+        System.arraycopy(newLengths, 0, lengths, 0, newLengths.length);
+        Arrays.fill(lengths, newLengths.length, lengths.length, 0);
+        assign();
+    }
+
+    /**
+     * Assigns the canonical codes for the current lengths
+     */
+    private void assign() {
+        //count the codes of each length
+        Arrays.fill(lengthCount, 0);
+        count = 0;
+        maxLength = 0;
+        for(int length : lengths) {
+            if(length > 0) {
+                lengthCount[length]++;
+                count++;
+                maxLength = Math.max(maxLength, length);
+            }
+        }
+
+        //find the first code of each length and where its characters go in order
+        long code = 0;
+        int first = 0;
+        for(int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCount[length - 1]) << 1;
+            next[length] = code;
+        }
+        int[] position = lengthCount;     //the counts are not needed again
+        for(int length = 1; length <= maxLength; length++) {
+            int n = position[length];
+            position[length] = first;
+            first += n;
+        }
+
+        //give out the codes of each length in order of character
+        for(int c = 0; c < lengths.length; c++) {
+            int length = lengths[c];
+            if(length > 0) {
+                codes[c] = next[length]++;
+                order[position[length]++] = c;
+            }
+        }
+    }
+
+    /**
+     * Reads the code lengths written by write() and rebuilds the code
+     * @param d the stream positioned at the start of the code
+     */
+    public static HuffmanCode read(DataInputStream d) throws IOException {
+        byte[] header = new byte[4];
+        d.readFully(header);
+        byte[] all = Arrays.copyOf(header, 4 + bodyBytes(header, 0));
+        d.readFully(all, 4, all.length - 4);
+
+        HuffmanCode code = new HuffmanCode(HuffmanTree.ALPHABET);
+        code.read(new HuffmanInputStream(all, 0, all.length));
+        return code;
+    }
+
+    /**
+     * Replaces the code with the code whose lengths are written next in a
+     * stream, see write()
+     * @param in the stream positioned at the start of the code
+     */
+    public void read(HuffmanInputStream in) throws IOException {
+        int n = in.readBits(16);
+        int bits = in.readBits(8);
+        int last = ((bits >> 4) << 8) | in.readBits(8);
+        bits &= 0x0F;
+        if(n > lengths.length || last >= lengths.length || bits > 6) {
+            throw new IOException("corrupt code lengths");
+        }
+        Arrays.fill(lengths, 0);
+        if(sparse(n, bits, last)) {
+            int characterBits = characterBits(last);
+            for(int i = 0; i < n; i++) {
+                int c = in.readBits(characterBits);
+                if(c > last) {
+                    throw new IOException("corrupt code lengths");
+                }
+                lengths[c] = in.readBits(bits);
+            }
+        } else {
+            for(int c = 0; c <= last; c++) {
+                lengths[c] = in.readBits(bits);
+            }
+        }
+        in.alignToByte();
+        checkLengths();
+        assign();
+    }
+
+    /**
+     * Makes sure code lengths read from a file describe a prefix code
+     */
+    private void checkLengths() throws IOException {
+        //the sum of 2^-length over all codes can not be more than 1
+        double kraft = 0;
+        for(int length : lengths) {
+            if(length > MAX_LENGTH) {
+                throw new IOException("corrupt code lengths");
+            }
+            if(length > 0) {
+                kraft += Math.pow(2, -length);
+            }
+        }
+        if(kraft > 1) {
+            throw new IOException("corrupt code lengths");
+        }
+    }
+
+    /**
+     * Decides how the lengths are stored, as (character, length) pairs or as a
+     * length for every character up to the last one, whichever is smaller
+     * @param n the number of characters with a code
+     * @param bits the number of bits in each length
+     * @param last the largest character with a code
+     * @return true to store pairs
+     */
+    private static boolean sparse(int n, int bits, int last) {
+        return (long) n * (characterBits(last) + bits) < (long) (last + 1) * bits;
+    }
+
+    /**
+     * @param last the largest character with a code
+     * @return the number of bits each character of a pair is stored in
+     */
+    private static int characterBits(int last) {
+        return Math.max(8, 32 - Integer.numberOfLeadingZeros(last));
+    }
+
+    /**
+     * @param n the number of characters with a code
+     * @param bits the number of bits in each length
+     * @param last the largest character with a code
+     * @return the number of bytes of lengths that follow the first 4 bytes
+     */
+    private static int bodyBytes(int n, int bits, int last) {
+        long size = sparse(n, bits, last) ? (long) n * (characterBits(last) + bits) : (long) (last + 1) * bits;
+        return (int) ((size + 7) / 8);
+    }
+
+    /**
+     * @param header the first 4 bytes written by write()
+     * @param offset the position of the first byte
+     * @return the number of bytes of lengths that follow the first 4 bytes
+     */
+    static int bodyBytes(byte[] header, int offset) {
+        int n = ((header[offset] & 0xFF) << 8) | (header[offset + 1] & 0xFF);
+        int bits = header[offset + 2] & 0x0F;
+        int last = ((header[offset + 2] & 0xF0) << 4) | (header[offset + 3] & 0xFF);
+        return bodyBytes(n, bits, last);
+    }
+
+    /**
+     * @return the largest character with a code
+     */
+    private int last() {
+        for(int c = lengths.length - 1; c > 0; c--) {
+            if(lengths[c] > 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of bits in each stored length
+     */
+    private int lengthBits() {
+        return 32 - Integer.numberOfLeadingZeros(maxLength);
+    }
+
+    /**
+     * @return the number of bytes write() writes
+     */
+    public int headerBytes() {
+        return 4 + bodyBytes(count, lengthBits(), last());
+    }
+
+    /**
+     * Writes the code lengths
+     *     short the number of characters with a code
+     *     byte  the number of bits in each length, in the low 4 bits, and the
+     *           bits of the largest character above the lowest 8, in the high 4
+     *     byte  the lowest 8 bits of the largest character with a code
+     *     bits  either a (character, length) pair for each character with a
+     *           code or the length of every character up to the largest one,
+     *           whichever is smaller, padded to a whole byte. The characters
+     *           of the pairs are 8 bits, or as many as the largest one needs.
+     * @param d the stream the code is written to
+     */
+    public void write(DataOutputStream d) throws IOException {
+        byte[] header = new byte[headerBytes()];
+        HuffmanOutputStream out = new HuffmanOutputStream(header, 0, header.length);
+        write(out);
+        out.finish();
+        d.write(header);
+    }
+
+    /**
+     * Writes the code lengths, in the format of write(DataOutputStream), into
+     * a stream of bits
+     * @param out the stream positioned at a whole byte
+     */
+    public void write(HuffmanOutputStream out) {
+        int bits = lengthBits();
+        int last = last();
+        boolean sparse = sparse(count, bits, last);
+        int characterBits = characterBits(last);
+        out.writeBits(count, 16);
+        out.writeBits(((last >> 8) << 4) | bits, 8);
+        out.writeBits(last & 0xFF, 8);
+        for(int c = 0; c <= last; c++) {
+            if(!sparse) {
+                out.writeBits(lengths[c], bits);
+            } else if(lengths[c] > 0) {
+                out.writeBits(c, characterBits);
+                out.writeBits(lengths[c], bits);
+            }
+        }
+        out.alignToByte();
+    }
+
+    /**
+     * @return the code of each character
+     */
+    public long[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * @return the length of each character's code, 0 if it has no code
+     */
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * @return the characters with a code in the order of their codes, the
+     *         first getCount() entries are used
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the number of characters with a code
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the length of the longest code
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+}
@@ -2,33 +2,441 @@
  * A decoder for a HuffmanTree
  */
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
 
 public class HuffmanDecode {
     private HuffmanInputStream input;
-    private String huffmanString;
-    private int totalChars;
+    private long totalChars;
 
     /**
-     * implements the Huffman Decoding algorithm
-     * @param in the file that contains the tree and encodings
-     * @param out the file that contains the decoded text
+     * implements the Huffman Decoding algorithm. If the file cannot be
+     * decoded, what was written of the output file is deleted.
+     * @param in the file that contains the code lengths and encodings
+     * @param out the file that contains the decoded bytes
+     * @throws IOException if either file cannot be read or written, or the
+     *         encoded file is corrupt
      */
-    public HuffmanDecode(String in, String out) {
-        try{
+    public HuffmanDecode(String in, String out) throws IOException {
         input = new HuffmanInputStream(in);
-        huffmanString = input.getTree();
-        totalChars = input.getTotalChars();
+        try(HuffmanInputStream reading = input) {
+            totalChars = input.getTotalChars();
 
-        //recreate the HuffmanTree from the information stored in the binary file
-        HuffmanTree tree = new HuffmanTree(huffmanString, (char) 128);
+            //get the HuffmanCode rebuilt from the code lengths stored in the binary file
+            HuffmanCode code = input.getCode();
 
-        //Use a PrintWriter to write to the new text file.
-        PrintWriter writer = new PrintWriter(out);
+            //Use a BufferedOutputStream to write to the new file.
+            OutputStream writer = new BufferedOutputStream(new FileOutputStream(out), 1 << 16);
+            try(writer) {
+                decodeChecked(code, input, totalChars, writer);
+            } catch(IOException | RuntimeException e) {
+                Files.deleteIfExists(Paths.get(out));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Decodes a stream with the SINGLE layout, written by HuffmanEncode
+     * @param in the stream of the encoded file
+     * @param out the stream the decoded characters are written to
+     */
+    public static void decodeSingle(InputStream in, OutputStream out) throws IOException {
+        if(!in.markSupported()) {
+            in = new BufferedInputStream(in, 1 << 16);
+        }
+        HuffmanInputStream input = new HuffmanInputStream(in);
+        input.readHeader();
+        decodeChecked(input.getCode(), input, input.getTotalChars(), out);
+        out.flush();
+    }
+
+    /**
+     * Decodes a file written by HuffmanEncode through memory mapped windows.
+     * The output file is mapped at its final size, which is the character
+     * count in the header, and the characters are decoded straight into it.
+     * If the file cannot be decoded, the output file is deleted.
+     * @param in the name of the file that contains the code lengths and encodings
+     * @param out the name of the output file
+     */
+    public static void decodeMapped(String in, String out) throws IOException {
+        try(FileChannel input = FileChannel.open(Paths.get(in), StandardOpenOption.READ)) {
+            FileChannel output = FileChannel.open(Paths.get(out), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try(output) {
+                HuffmanInputStream bits = new HuffmanInputStream(new MappedInputStream(input));
+                bits.readHeader();
+                MappedOutputStream writer = new MappedOutputStream(output, bits.getTotalChars());
+                decodeChecked(bits.getCode(), bits, bits.getTotalChars(), writer);
+            } catch(IOException | RuntimeException e) {
+                Files.deleteIfExists(Paths.get(out));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Decodes the characters of a SINGLE layout a chunk at a time and checks
+     * them against the checksum after the last code. A file that ends before
+     * its last character fails instead of being decoded with zeros for the
+     * missing bits.
+     * @param code the HuffmanCode used by the encoder
+     * @param input the stream positioned at the first encoded bit
+     * @param totalChars the number of characters to decode
+     * @param writer where the decoded characters are written
+     */
+    static void decodeChecked(HuffmanCode code, HuffmanInputStream input, long totalChars, OutputStream writer)
+            throws IOException {
+        if(totalChars > 0 && code.getCount() == 0) {
+            throw new IOException("corrupt file");
+        }
+        HuffmanMetrics metrics = HuffmanStats.metrics();
+        long start = metrics.start();
+        HuffmanDecodeTable table = new HuffmanDecodeTable(code);
+        CRC32C crc = new CRC32C();
+        byte[] chunk = new byte[(int) Math.min(totalChars, 1 << 16)];
+        for(long done = 0; done < totalChars; done += chunk.length) {
+            int length = (int) Math.min(chunk.length, totalChars - done);
+            for(int i = 0; i < length; i++) {
+                chunk[i] = (byte) table.decode(input);
+            }
+            crc.update(chunk, 0, length);
+            writer.write(chunk, 0, length);
+        }
+        input.alignToByte();
+        long checksum = input.readBits(32) & 0xFFFFFFFFL;
+        if(input.pastEnd()) {
+            throw new EOFException("the file ends before its last character");
+        }
+        if(checksum != crc.getValue()) {
+            throw new IOException("checksum mismatch");
+        }
+        metrics.stop(HuffmanMetrics.DECODE, start);
+        metrics.decoded((input.getBitsRead() + 7) / 8, totalChars);
+    }
+
+    /**
+     * Decodes the characters with a HuffmanDecodeTable, several bits per lookup.
+     * @param code the HuffmanCode used by the encoder
+     * @param input the stream positioned at the first encoded bit
+     * @param totalChars the number of characters to decode
+     * @param writer where the decoded characters are written
+     */
+    static void decodeWithTable(HuffmanCode code, HuffmanInputStream input, long totalChars, OutputStream writer)
+            throws IOException {
+        HuffmanDecodeTable table = new HuffmanDecodeTable(code);
+        for(long i = 0; i < totalChars; i++) {
+            writer.write(table.decode(input));
+        }
+    }
+
+    /**
+     * Decodes one block of characters with a HuffmanDecodeTable.
+     * @param code the HuffmanCode used to encode the block
+     * @param input the stream positioned at the first encoded bit of the block
+     * @param block where the decoded characters are stored
+     * @param length the number of characters in the block
+     */
+    static void decodeBlock(HuffmanCode code, HuffmanInputStream input, byte[] block, int length) {
+        HuffmanDecodeTable table = new HuffmanDecodeTable(code);
+        for(int i = 0; i < length; i++) {
+            block[i] = (byte) table.decode(input);
+        }
+    }
+
+    /**
+     * Decodes a stream written by HuffmanEncode.encodeStream one block at a time
+     * @param in the stream of encoded blocks
+     * @param out the stream the decoded characters are written to
+     */
+    public static void decodeStream(InputStream in, OutputStream out) throws IOException {
+        new HuffmanDecoder().decode(new BufferedInputStream(in, 1 << 16), out);
+    }
+
+    /**
+     * Decodes a stream written by HuffmanEncode.encodeAdaptive, updating the
+     * AdaptiveHuffmanTree after each character the same way the encoder did.
+     * The decoded characters are written out whenever the input has nothing
+     * more waiting, and checked against the checksum after the END symbol
+     * once it is reached.
+     * @param in the stream of encoded bits
+     * @param out the stream the decoded characters are written to
+     */
+    public static void decodeAdaptive(InputStream in, OutputStream out) throws IOException {
+        if(!in.markSupported()) {
+            in = new BufferedInputStream(in, 1 << 16);
+        }
+        HuffmanMetrics metrics = HuffmanStats.metrics();
+        long start = metrics.start();
+        long characters = 0;
+        HuffmanFormat.expect(in, HuffmanFormat.ADAPTIVE);
+        AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree();
+        HuffmanInputStream input = new HuffmanInputStream(in);
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        int count = 0;
+        while(true) {
+            tree.moveToRoot();
+            while(!tree.atLeaf()) {
+                if(input.atEnd()) {
+                    throw new EOFException("the adaptive stream ends before its END symbol");
+                }
+                if(input.readBit() == 0) {
+                    tree.moveToLeft();
+                } else {
+                    tree.moveToRight();
+                }
+            }
+            int c = tree.current();
+            if(c == AdaptiveHuffmanTree.NYT) {
+                //a new character follows the path to the NYT leaf
+                if(input.atEnd()) {
+                    throw new EOFException("the adaptive stream ends before its END symbol");
+                }
+                c = input.readBits(AdaptiveHuffmanTree.SYMBOL_BITS);
+                if(c > AdaptiveHuffmanTree.END || tree.contains(c)) {
+                    throw new IOException("corrupt adaptive stream");
+                }
+            }
+            if(c == AdaptiveHuffmanTree.END) {
+                break;
+            }
+            tree.update(c);
+            buffer[count++] = (byte) c;
+            if(count == buffer.length || input.available() == 0) {
+                characters += count;
+                crc.update(buffer, 0, count);
+                out.write(buffer, 0, count);
+                out.flush();
+                count = 0;
+            }
+        }
+        characters += count;
+        crc.update(buffer, 0, count);
+        out.write(buffer, 0, count);
+        out.flush();
+        input.alignToByte();
+        long checksum = input.readBits(32) & 0xFFFFFFFFL;
+        if(input.pastEnd()) {
+            throw new EOFException("the adaptive stream ends before its checksum");
+        }
+        if(checksum != crc.getValue()) {
+            throw new IOException("checksum mismatch");
+        }
+        metrics.stop(HuffmanMetrics.DECODE, start);
+        metrics.decoded(input.getBitsRead() / 8, characters);
+    }
+
+    /**
+     * Decodes a message written by HuffmanEncode.encodeWithDictionary
+     * @param in the stream of the encoded message
+     * @param out the stream the decoded message is written to
+     * @param dictionary a dictionary file, or a directory of dictionaries
+     *        where the dictionary is found by the ID in the message
+     */
+    public static void decodeWithDictionary(InputStream in, OutputStream out, Path dictionary) throws IOException {
+        byte[] message = in.readAllBytes();
+        if(Files.isDirectory(dictionary)) {
+            out.write(HuffmanDictionary.decode(dictionary, message));
+        } else {
+            HuffmanDictionary loaded = HuffmanDictionary.load(dictionary);
+            byte[] decoded = new byte[HuffmanDictionary.decodedLength(message, 0)];
+            loaded.decode(message, 0, message.length, decoded, 0);
+            out.write(decoded);
+        }
+        out.flush();
+    }
+
+    /**
+     * Decodes a file written by HuffmanEncode.encodeStream. The block index is
+     * used to find every block, the blocks are decoded in parallel and each one
+     * is written into its place in the output file. If the file cannot be
+     * decoded, the output file is deleted.
+     * @param in the name of the file of encoded blocks
+     * @param out the name of the output file
+     * @param threads the number of blocks decoded at the same time
+     */
+    public static void decodeFile(String in, String out, int threads) throws IOException {
+        try(FileChannel input = FileChannel.open(Paths.get(in), StandardOpenOption.READ)) {
+            readBlocksHeader(input);
+            HuffmanBlockIndex index = HuffmanBlockIndex.read(input);
+            RandomAccessFile output = new RandomAccessFile(out, "rw");
+            try(output) {
+                //make the output file its final size, each block goes at its start
+                output.setLength(index.getTotalLength());
+
+                FileChannel channel = output.getChannel();
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for(int i = 0; i < index.size(); i++) {
+                    int block = i;
+                    tasks.add(() -> {
+                        decodeBlockAt(input, index, block, channel, index.getStart(block));
+                        return null;
+                    });
+                }
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    for(Future<Void> task : pool.invokeAll(tasks)) {
+                        HuffmanEncode.await(task);
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            } catch(IOException | RuntimeException e) {
+                Files.deleteIfExists(Paths.get(out));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Checks an encoded file without writing the decoded characters anywhere.
+     * Every character is decoded and checked against the checksums of its
+     * layout. A file of blocks is checked in parallel through its block index,
+     * reading each block once, and no more blocks are started once one fails.
+     * @param in the name of the encoded file, or - for standard input
+     * @param layout the layout of the file, or ANY to find it from the header
+     * @param threads the number of blocks checked at the same time
+     */
+    public static void verify(String in, int layout, int threads) throws IOException {
+        try(InputStream input = new BufferedInputStream(in.equals("-") ? System.in : new FileInputStream(in), 1 << 16)) {
+            if(layout == HuffmanFormat.ANY) {
+                layout = HuffmanFormat.peek(input);
+            }
+            if(layout == HuffmanFormat.BLOCKS && !in.equals("-")) {
+                verifyBlocks(in, threads);
+                return;
+            }
+            OutputStream out = OutputStream.nullOutputStream();
+            if(layout == HuffmanFormat.ADAPTIVE) {
+                decodeAdaptive(input, out);
+            } else if(layout == HuffmanFormat.BLOCKS) {
+                new HuffmanDecoder().decode(input, out);
+            } else {
+                decodeSingle(input, out);
+            }
+        }
+    }
+
+    /**
+     * Checks every block of a file of blocks in parallel
+     * @param in the name of the file
+     * @param threads the number of blocks checked at the same time
+     */
+    private static void verifyBlocks(String in, int threads) throws IOException {
+        try(FileChannel input = FileChannel.open(Paths.get(in), StandardOpenOption.READ)) {
+            readBlocksHeader(input);
+            HuffmanBlockIndex index = HuffmanBlockIndex.read(input);
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for(int i = 0; i < index.size(); i++) {
+                int block = i;
+                tasks.add(() -> {
+                    //skip the blocks left once one has failed
+                    if(!failed.get()) {
+                        try {
+                            readBlock(new HuffmanDecoder(), input, index, block);
+                        } catch(IOException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                    return null;
+                });
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for(Future<Void> task : pool.invokeAll(tasks)) {
+                    HuffmanEncode.await(task);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reads the header of a file of blocks
+     * @param input the file of encoded blocks
+     */
+    static void readBlocksHeader(FileChannel input) throws IOException {
+        readBlocksHeader(input, 0, input.size());
+    }
+
+    /**
+     * Reads the header of a stream of blocks stored inside a file
+     * @param input the file
+     * @param start the position in the file of the start of the stream
+     * @param size the number of bytes in the stream
+     */
+    static void readBlocksHeader(FileChannel input, long start, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(HuffmanFormat.HEADER_BYTES, size));
+        HuffmanBlockIndex.readFully(input, header, start);
+        HuffmanFormat.expect(new ByteArrayInputStream(header.array(), 0, header.limit()), HuffmanFormat.BLOCKS);
+    }
+
+    /**
+     * Reads and decodes one block of a file
+     * @param decoder the decoder to use
+     * @param input the file of encoded blocks
+     * @param index the index of the blocks in input
+     * @param i the block to decode
+     * @return the characters of the block
+     */
+    static byte[] readBlock(HuffmanDecoder decoder, FileChannel input, HuffmanBlockIndex index, int i)
+            throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate((int) index.getSize(i));
+        HuffmanBlockIndex.readFully(input, encoded, index.getOffset(i));
+        byte[] block = new byte[index.getLength(i)];
+        int length;
+        try {
+            length = decoder.decode(encoded.array(), 0, encoded.capacity(), block, 0);
+        } catch(IllegalArgumentException e) {
+            length = -1;    //the block has more characters than the index says
+        } catch(IOException e) {
+            throw new IOException("block " + i + " at " + index.getOffset(i) + ": " + e.getMessage(), e);
+        }
+        if(length != block.length) {
+            throw new IOException("block " + i + " does not match the block index");
+        }
+        return block;
+    }
+
+    /**
+     * Decodes one block of a file and writes it into the output file
+     * @param input the file of encoded blocks
+     * @param index the index of the blocks in input
+     * @param i the block to decode
+     * @param output the output file
+     * @param start the position of the block's first character in output
+     */
+    private static void decodeBlockAt(FileChannel input, HuffmanBlockIndex index, int i, FileChannel output,
+                                      long start) throws IOException {
+        ByteBuffer decoded = ByteBuffer.wrap(readBlock(new HuffmanDecoder(), input, index, i));
+        while(decoded.hasRemaining()) {
+            output.write(decoded, start + decoded.position());
+        }
+    }
+
+    /**
+     * Decodes the characters by walking the HuffmanTree one bit at a time.
+     * @param tree the HuffmanTree used by the encoder
+     * @param input the stream positioned at the first encoded bit
+     * @param totalChars the number of characters to decode
+     * @param writer where the decoded characters are written
+     */
+    static void decodeWithTree(HuffmanTree tree, HuffmanInputStream input, long totalChars, OutputStream writer)
+            throws IOException {
         tree.moveToRoot();
 
         //for each character in the file, move left or right and write
         //the information stored in the node to the file if at a leaf
-        for(int i = 0; i < totalChars; i++){
+        for(long i = 0; i < totalChars; i++){
             while(!tree.atLeaf()){
                 int bit = input.readBit();
                 if(bit == 0)
@@ -38,15 +446,31 @@ public class HuffmanDecode {
                 }
                 if(tree.atLeaf()){
                     char c = tree.current();
-                    writer.print(c);
+                    writer.write(c);
                 }
             }
             tree.moveToRoot();
         }
-        input.close();
-        writer.close();
-        } catch (IOException e) {
-            System.out.println(e);
+    }
+
+    /**
+     * Checks a file and prints whether it is intact
+     * @param in the name of the encoded file, or - for standard input
+     * @param stream true if the file was given as a stream of blocks
+     * @param adaptive true if the file was given as adaptive
+     * @param threads the number of blocks checked at the same time
+     * @return true if the file is intact
+     */
+    private static boolean verifyFile(String in, boolean stream, boolean adaptive, int threads) {
+        try {
+            //without a mode the layout comes from the header
+            int layout = stream ? HuffmanFormat.BLOCKS : adaptive ? HuffmanFormat.ADAPTIVE : HuffmanFormat.ANY;
+            verify(in, layout, threads);
+            System.out.println(in + ": OK");
+            return true;
+        } catch(IOException e) {
+            System.out.println(in + ": FAILED " + e.getMessage());
+            return false;
         }
     }
 
@@ -55,8 +479,129 @@ public class HuffmanDecode {
      * @param args
      *   args[0] is the name of an input file (a file created by Huffman Encode)
      *   args[1] is the name of the output file for the uncompressed file
+     *   with -mmap before the names the files are read and written through memory
+     *   mapped windows
+     *   with -stream before the names the input is a stream of blocks written by
+     *   HuffmanEncode -stream, and - can be used for standard input or standard output
+     *   -threads n sets the number of blocks decoded in parallel when both names
+     *   are files (default the number of processors)
+     *   with -adaptive before the names the input was written by HuffmanEncode
+     *   -adaptive, and - can be used for standard input or standard output
+     *   -dict path decodes a message written by HuffmanEncode -dict, path is the
+     *   dictionary file or a directory of dictionaries to find it in by its ID
+     *   without -stream or -adaptive the layout is found from the file's header,
+     *   and - can be used for standard input or standard output
+     *   -verify in checks the file against its checksums without writing
+     *   anything, and prints whether it is intact; the exit status is 1 if it
+     *   is not, so a scan of many files can be scripted; it cannot be used
+     *   with -dict, as a message has no checksum
+     *   -stats prints the time of each stage and the sizes to standard error
+     *   when done
      */
     public static void main(String[] args) {
-        new HuffmanDecode(args[0], args[1]);
+        boolean stream = false;
+        boolean mmap = false;
+        boolean adaptive = false;
+        boolean verify = Arrays.asList(args).contains("-verify");
+        boolean stats = false;
+        String dictionary = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for(; i < args.length - (verify ? 1 : 2); i++) {
+            if(args[i].equals("-stream")) {
+                stream = true;
+            } else if(args[i].equals("-mmap")) {
+                mmap = true;
+            } else if(args[i].equals("-adaptive")) {
+                adaptive = true;
+            } else if(args[i].equals("-dict")) {
+                dictionary = args[++i];
+            } else if(args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-stats")) {
+                stats = true;
+            }
+        }
+        if(verify && dictionary != null) {
+            //a message has no checksum, so there is nothing to check it against
+            System.err.println("-verify cannot be used with -dict");
+            System.exit(1);
+        }
+        HuffmanStats metrics = stats ? HuffmanStats.install() : null;
+        long began = System.nanoTime();
+        boolean failed = false;
+        try {
+            if(verify) {
+                failed = !verifyFile(args[i], stream, adaptive, threads);
+                return;
+            }
+            if(mmap) {
+                decodeMapped(args[i], args[i + 1]);
+                return;
+            }
+            InputStream in = new BufferedInputStream(args[i].equals("-") ? System.in : new FileInputStream(args[i]), 1 << 16);
+            if(!stream && !adaptive && dictionary == null) {
+                //without a mode the layout comes from the header
+                int layout = HuffmanFormat.peek(in);
+                stream = layout == HuffmanFormat.BLOCKS;
+                adaptive = layout == HuffmanFormat.ADAPTIVE;
+            }
+            if(dictionary == null && !adaptive && !args[i].equals("-") && !args[i + 1].equals("-")) {
+                in.close();
+                if(stream) {
+                    decodeFile(args[i], args[i + 1], threads);
+                } else {
+                    new HuffmanDecode(args[i], args[i + 1]);
+                }
+                return;
+            }
+            if(args[i + 1].equals("-")) {
+                decodeTo(in, System.out, dictionary, adaptive, stream);
+                //System.out keeps its errors to itself
+                if(System.out.checkError()) {
+                    throw new IOException("cannot write to standard output");
+                }
+            } else {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(args[i + 1]), 1 << 16);
+                try(out) {
+                    decodeTo(in, out, dictionary, adaptive, stream);
+                } catch(IOException | RuntimeException e) {
+                    Files.deleteIfExists(Paths.get(args[i + 1]));
+                    throw e;
+                }
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println(e);
+            failed = true;
+        } finally {
+            if(metrics != null) {
+                metrics.report(System.err, System.nanoTime() - began);
+            }
+            if(failed) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Decodes a stream with the layout main found for it
+     * @param in the stream of the encoded file
+     * @param out the stream the decoded characters are written to
+     * @param dictionary the dictionary file or directory, or null
+     * @param adaptive true if the stream was written by HuffmanEncode -adaptive
+     * @param stream true if the stream is a stream of blocks
+     */
+    private static void decodeTo(InputStream in, OutputStream out, String dictionary, boolean adaptive,
+                                 boolean stream) throws IOException {
+        if(dictionary != null) {
+            decodeWithDictionary(in, out, Paths.get(dictionary));
+        } else if(adaptive) {
+            decodeAdaptive(in, out);
+        } else if(stream) {
+            decodeStream(in, out);
+        } else {
+            decodeSingle(in, out);
+        }
     }
 }
@@ -0,0 +1,55 @@
+/*
+* Compares the throughput of the table driven decoder with the original
+* decoder that walks the HuffmanTree one bit at a time.
+ */
+import java.io.*;
+
+public class HuffmanDecodeBenchmark {
+
+    /**
+     * Decodes the file once with the given method and discards the output
+     * @param fileName a file created by HuffmanEncode
+     * @param table true to use the HuffmanDecodeTable, false to walk the tree
+     * @return the time it took in nanoseconds
+     */
+    private static long time(String fileName, boolean table) throws IOException {
+        HuffmanInputStream input = new HuffmanInputStream(fileName);
+        HuffmanCode code = input.getCode();
+        OutputStream sink = OutputStream.nullOutputStream();
+        long start = System.nanoTime();
+        if(table) {
+            HuffmanDecode.decodeWithTable(code, input, input.getTotalChars(), sink);
+        } else {
+            HuffmanDecode.decodeWithTree(new HuffmanTree(code), input, input.getTotalChars(), sink);
+        }
+        long elapsed = System.nanoTime() - start;
+        input.close();
+        return elapsed;
+    }
+
+    /**
+     * Runs both decoders several times and prints the best throughput of each
+     * @param args
+     *   args[0] is the name of a file created by HuffmanEncode
+     *   args[1] is the number of runs of each decoder (default 5)
+     */
+    public static void main(String[] args) throws IOException {
+        String fileName = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        HuffmanInputStream header = new HuffmanInputStream(fileName);
+        double megabytes = header.getTotalChars() / 1e6;
+        header.close();
+
+        long bestTree = Long.MAX_VALUE;
+        long bestTable = Long.MAX_VALUE;
+        for(int i = 0; i < runs; i++) {
+            bestTree = Math.min(bestTree, time(fileName, false));
+            bestTable = Math.min(bestTable, time(fileName, true));
+        }
+        double treeRate = megabytes / (bestTree / 1e9);
+        double tableRate = megabytes / (bestTable / 1e9);
+        System.out.printf("tree walk:   %10.1f MB/s%n", treeRate);
+        System.out.printf("table:       %10.1f MB/s%n", tableRate);
+        System.out.printf("speedup:     %10.2fx%n", tableRate / treeRate);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+* A lookup table built from the codes of a HuffmanCode. The decoder looks up
+* the next ROOT_BITS bits at once and gets the decoded character and the
+* length of its code instead of walking the tree one bit at a time. Codes that
+* are longer than the root table are finished in smaller sub-tables. A table
+* can be built again for another code, reusing its array.
+ */
+import java.util.*;
+
+public class HuffmanDecodeTable {
+    static final int ROOT_BITS = 10;
+    static final int SUB_BITS = 8;
+
+    /*
+    Each entry is either a leaf or a link to a sub-table.
+    leaf: (character << 16) | number of bits used in this table
+    link: LINK | (offset of the sub-table << 5) | index bits of the sub-table
+    */
+    private static final int LINK = 0x80000000;
+
+    private int[] table;
+    private int used;
+    private int rootBits;
+    private long[] codes;
+    private int[] lengths;
+    private int[] order;
+
+    /**
+     * An empty table that is built by build()
+     */
+    public HuffmanDecodeTable() {
+        table = new int[1 << ROOT_BITS];
+    }
+
+    /**
+     * Builds the tables from a canonical code
+     * @param code the code of each character
+     */
+    public HuffmanDecodeTable(HuffmanCode code) {
+        this();
+        build(code);
+    }
+
+    /**
+     * Replaces the tables with the tables of a canonical code
+     * @param code the code of each character
+     */
+    public void build(HuffmanCode code) {
+        codes = code.getCodes();
+        lengths = code.getLengths();
+        order = code.getOrder();
+        rootBits = Math.min(ROOT_BITS, Math.max(code.getMaxLength(), 1));
+        used = 0;
+        buildTable(0, code.getCount(), 0, rootBits);
+    }
+
+    /**
+     * Builds the table for the characters whose codes start with the same
+     * prefix and recursively builds the sub-tables for the longer codes. The
+     * characters are in the order of their codes, so the longer codes that
+     * share an index in this table are next to each other.
+     * @param from the first character in order that shares the prefix
+     * @param to the end of the characters in order that share the prefix
+     * @param prefixLength the number of bits resolved by the parent tables
+     * @param bits the number of bits this table is indexed by
+     * @return the offset of the new table
+     */
+    private int buildTable(int from, int to, int prefixLength, int bits) {
+        int offset = used;
+        used += 1 << bits;
+        if(used > table.length) {
+            table = Arrays.copyOf(table, Math.max(used, table.length * 2));
+        }
+        Arrays.fill(table, offset, used, 0);
+
+        int i = from;
+        while(i < to) {
+            int c = order[i];
+            int remaining = lengths[c] - prefixLength;
+            long rest = codes[c] & ((1L << remaining) - 1);
+            if(remaining <= bits) {
+                //fill every entry that starts with the rest of the code
+                int first = (int) (rest << (bits - remaining));
+                Arrays.fill(table, offset + first, offset + first + (1 << (bits - remaining)), (c << 16) | remaining);
+                i++;
+            } else {
+                //link the index to a sub-table big enough for the longest code with that index
+                int index = (int) (rest >>> (remaining - bits));
+                int j = i + 1;
+                while(j < to && indexOf(order[j], prefixLength, bits) == index) {
+                    j++;
+                }
+                int subBits = Math.min(SUB_BITS, lengths[order[j - 1]] - prefixLength - bits);
+                int subOffset = buildTable(i, j, prefixLength + bits, subBits);
+                table[offset + index] = LINK | (subOffset << 5) | subBits;
+                i = j;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @param c a character whose code is longer than prefixLength + bits
+     * @param prefixLength the number of bits resolved by the parent tables
+     * @param bits the number of bits the table is indexed by
+     * @return the index of the character's code in the table
+     */
+    private int indexOf(int c, int prefixLength, int bits) {
+        int remaining = lengths[c] - prefixLength;
+        return (int) ((codes[c] >>> (remaining - bits)) & ((1L << bits) - 1));
+    }
+
+    /**
+     * Decodes the next character from the stream
+     * @param in the stream positioned at the start of a code
+     * @return the decoded character
+     */
+    public int decode(HuffmanInputStream in) {
+        int offset = 0;
+        int bits = rootBits;
+        int entry = table[in.peekBits(bits)];
+        while(entry < 0) {
+            //the code is longer than this table, continue in the sub-table
+            in.skipBits(bits);
+            offset = (entry >>> 5) & 0x3FFFFFF;
+            bits = entry & 31;
+            entry = table[offset + in.peekBits(bits)];
+        }
+        in.skipBits(entry & 0xFFFF);
+        return entry >>> 16;
+    }
+}
@@ -0,0 +1,412 @@
+/*
+* A reusable decoder for blocks written by HuffmanEncoder or HuffmanEncode
+* -stream. A decoder keeps its code, table and buffers between calls, so
+* decoding many blocks does not allocate for the characters being decoded. A
+* decoder must only be used by one thread at a time.
+*
+* The characters of every block are checked against the CRC32C in the block's
+* header, so a corrupt or truncated block fails with an IOException instead of
+* decoding into the wrong characters.
+*
+* A block coded with pairs (see HuffmanEncoder) writes both characters of a
+* pair for the one code it looks up. A block coded with clusters switches to
+* the table of the previous character's cluster before each lookup. A block
+* in streams is read from its four streams at once, one character from each
+* in turn. A block with no code is copied, filled from its runs or filled
+* with its one character, without a table.
+ */
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class HuffmanDecoder {
+    private HuffmanCode code;
+    private HuffmanDecodeTable table;
+    private int[] pairs;        //the two characters of each pair of the block, indexed from ALPHABET
+    private HuffmanCode[] clusterCodes;
+    private HuffmanDecodeTable[] clusterTables;
+    private HuffmanDecodeTable[] contextTables;     //the table of each previous character's cluster
+    private HuffmanInputStream reader;
+    private HuffmanInputStream[] streams;
+    private int[] streamBytes;  //the number of bytes in each stream but the last
+    private CRC32C crc;
+    private byte[] source;      //a copy of a ByteBuffer that has no array, or a block read from a stream
+    private byte[] decoded;     //the decoded block for ByteBuffers and streams
+
+    /**
+     * A decoder with empty tables
+     */
+    public HuffmanDecoder() {
+        code = new HuffmanCode(HuffmanEncoder.PAIR_ALPHABET);
+        table = new HuffmanDecodeTable();
+        pairs = new int[HuffmanEncoder.MAX_PAIRS];
+        clusterCodes = new HuffmanCode[HuffmanEncoder.MAX_CLUSTERS];
+        clusterTables = new HuffmanDecodeTable[HuffmanEncoder.MAX_CLUSTERS];
+        contextTables = new HuffmanDecodeTable[HuffmanTree.ALPHABET];
+        reader = new HuffmanInputStream(new byte[0], 0, 0);
+        streams = new HuffmanInputStream[HuffmanEncoder.STREAM_COUNT];
+        for(int k = 0; k < streams.length; k++) {
+            streams[k] = new HuffmanInputStream(new byte[0], 0, 0);
+        }
+        streamBytes = new int[HuffmanEncoder.STREAM_COUNT - 1];
+        crc = new CRC32C();
+        source = new byte[0];
+        decoded = new byte[0];
+    }
+
+    /**
+     * @param src an encoded block
+     * @param offset the position of the block
+     * @return the number of characters the block decodes to
+     */
+    public static int decodedLength(byte[] src, int offset) {
+        return ByteBuffer.wrap(src).getInt(offset);
+    }
+
+    /**
+     * Decodes a block from an array into an array
+     * @param src the encoded block
+     * @param srcOffset the position of the block
+     * @param srcLength the number of bytes of src that belong to the block
+     * @param dst where the decoded characters are written
+     * @param dstOffset the position of the first character to write
+     * @return the number of characters written
+     * @throws IllegalArgumentException if dst does not have room for the characters
+     */
+    public int decode(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws IOException {
+        if(srcLength < HuffmanEncoder.BLOCK_HEADER) {
+            throw new IOException("truncated block");
+        }
+        HuffmanMetrics metrics = HuffmanStats.metrics();
+        long begin = metrics.start();
+        reader.reset(src, srcOffset, srcLength);
+        int length = reader.readBits(32);
+        long bits = ((long) reader.readBits(32) << 32) | (reader.readBits(32) & 0xFFFFFFFFL);
+        long checksum = reader.readBits(32) & 0xFFFFFFFFL;
+        int mode = reader.readBits(8);
+        if(length < 0 || length > HuffmanEncoder.MAX_BLOCK || bits < 0) {
+            throw new IOException("corrupt block");
+        }
+        //the bits count everything after the header
+        long start = reader.getBitsRead();
+        int pairCount = 0;
+        if(mode == HuffmanEncoder.CONTEXTS) {
+            readClusters();
+        } else if(mode >= HuffmanEncoder.STORED && mode <= HuffmanEncoder.REPEATED) {
+            //there is no code
+        } else {
+            if(mode == HuffmanEncoder.PAIRS) {
+                pairCount = reader.readBits(8) + 1;
+                for(int j = 0; j < pairCount; j++) {
+                    pairs[j] = reader.readBits(16);
+                }
+            } else if(mode != HuffmanEncoder.HUFFMAN && mode != HuffmanEncoder.STREAMS) {
+                throw new IOException("unknown block mode " + mode);
+            }
+            code.read(reader);
+            int[] lengths = code.getLengths();
+            for(int c = HuffmanTree.ALPHABET + pairCount; c < lengths.length; c++) {
+                if(lengths[c] > 0) {
+                    throw new IOException("corrupt code lengths");
+                }
+            }
+            if(length > 0 && code.getCount() == 0) {
+                throw new IOException("corrupt block");
+            }
+        }
+        if(start + bits > (long) srcLength * 8) {
+            throw new IOException("truncated block");
+        }
+        if(length > dst.length - dstOffset) {
+            throw new IllegalArgumentException("the block has " + length + " characters but there is room for "
+                    + (dst.length - dstOffset));
+        }
+        long end = 0;       //the position after the last bit of a block in streams or with no code
+        if(mode >= HuffmanEncoder.STORED) {
+            int offset = srcOffset + (int) (start / 8);
+            end = start + 8L * decodeUncoded(mode, src, offset, (int) (bits / 8), dst, dstOffset, dstOffset + length);
+        } else if(mode == HuffmanEncoder.CONTEXTS) {
+            decodeContexts(dst, dstOffset, dstOffset + length);
+        } else if(mode == HuffmanEncoder.STREAMS) {
+            table.build(code);
+            end = decodeStreams(src, srcOffset, srcLength, dst, dstOffset, dstOffset + length);
+        } else if(pairCount == 0) {
+            table.build(code);
+            for(int i = dstOffset; i < dstOffset + length; i++) {
+                dst[i] = (byte) table.decode(reader);
+            }
+        } else {
+            table.build(code);
+            decodePairs(dst, dstOffset, dstOffset + length);
+        }
+        if(mode < HuffmanEncoder.STREAMS) {
+            end = reader.getBitsRead();
+        }
+        if(end - start != bits) {
+            throw new IOException("corrupt block");
+        }
+        crc.reset();
+        crc.update(dst, dstOffset, length);
+        if(crc.getValue() != checksum) {
+            throw new IOException("block checksum mismatch");
+        }
+        metrics.stop(HuffmanMetrics.DECODE, begin);
+        metrics.decoded((end + 7) / 8, length);
+        return length;
+    }
+
+    /**
+     * Decodes the characters of a block coded with pairs
+     * @param dst where the decoded characters are written
+     * @param from the position of the first character
+     * @param to the end of the characters
+     */
+    private void decodePairs(byte[] dst, int from, int to) throws IOException {
+        int i = from;
+        while(i < to) {
+            int symbol = table.decode(reader);
+            if(symbol < HuffmanTree.ALPHABET) {
+                dst[i++] = (byte) symbol;
+            } else if(i + 1 < to) {
+                int pair = pairs[symbol - HuffmanTree.ALPHABET];
+                dst[i] = (byte) (pair >> 8);
+                dst[i + 1] = (byte) pair;
+                i += 2;
+            } else {
+                throw new IOException("corrupt block");
+            }
+        }
+    }
+
+    /**
+     * Decodes the characters of a block in streams. The characters are taken
+     * from the four streams in turn, and the four lookups in each turn do not
+     * depend on each other.
+     * @param src the encoded block
+     * @param srcOffset the position of the block
+     * @param srcLength the number of bytes of src that belong to the block
+     * @param dst where the decoded characters are written
+     * @param from the position of the first character
+     * @param to the end of the characters
+     * @return the position after the last bit of the last stream, in bits
+     *         from the start of the block
+     */
+    private long decodeStreams(byte[] src, int srcOffset, int srcLength, byte[] dst, int from, int to)
+            throws IOException {
+        for(int k = 0; k < streamBytes.length; k++) {
+            streamBytes[k] = reader.readBits(32);
+        }
+        int offset = srcOffset + (int) (reader.getBitsRead() / 8);
+        for(int k = 0; k < streamBytes.length; k++) {
+            if(streamBytes[k] < 0 || streamBytes[k] > srcOffset + srcLength - offset) {
+                throw new IOException("truncated block");
+            }
+            streams[k].reset(src, offset, streamBytes[k]);
+            offset += streamBytes[k];
+        }
+        HuffmanInputStream last = streams[streams.length - 1];
+        last.reset(src, offset, srcOffset + srcLength - offset);
+
+        HuffmanInputStream s0 = streams[0];
+        HuffmanInputStream s1 = streams[1];
+        HuffmanInputStream s2 = streams[2];
+        HuffmanInputStream s3 = streams[3];
+        int i = from;
+        for(; i + 3 < to; i += 4) {
+            dst[i] = (byte) table.decode(s0);
+            dst[i + 1] = (byte) table.decode(s1);
+            dst[i + 2] = (byte) table.decode(s2);
+            dst[i + 3] = (byte) table.decode(s3);
+        }
+        for(int k = 0; i < to; i++, k++) {
+            dst[i] = (byte) table.decode(streams[k]);
+        }
+
+        //each stream but the last ends at its last whole byte
+        for(int k = 0; k < streamBytes.length; k++) {
+            if((streams[k].getBitsRead() + 7) / 8 != streamBytes[k]) {
+                throw new IOException("corrupt block");
+            }
+        }
+        return (long) (offset - srcOffset) * 8 + last.getBitsRead();
+    }
+
+    /**
+     * Decodes a block that has no code
+     * @param mode STORED, RUNS or REPEATED
+     * @param src the encoded block
+     * @param offset the position of the first byte after the header
+     * @param available the number of bytes after the header
+     * @param dst where the decoded characters are written
+     * @param from the position of the first character
+     * @param to the end of the characters
+     * @return the number of bytes after the header that were read
+     */
+    private static int decodeUncoded(int mode, byte[] src, int offset, int available, byte[] dst, int from, int to)
+            throws IOException {
+        if(mode == HuffmanEncoder.STORED) {
+            if(to - from > available) {
+                throw new IOException("truncated block");
+            }
+            System.arraycopy(src, offset, dst, from, to - from);
+            return to - from;
+        }
+        if(mode == HuffmanEncoder.REPEATED) {
+            if(available < 1) {
+                throw new IOException("truncated block");
+            }
+            Arrays.fill(dst, from, to, src[offset]);
+            return 1;
+        }
+        int end = offset + available;
+        int position = offset;
+        int i = from;
+        while(i < to) {
+            if(position == end) {
+                throw new IOException("truncated block");
+            }
+            byte c = src[position++];
+            int run = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if(position == end || shift > 28) {
+                    throw new IOException("corrupt block");
+                }
+                b = src[position++];
+                run |= (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+            if(run < 0 || run >= to - i) {
+                throw new IOException("corrupt block");     //the run is longer than the block
+            }
+            Arrays.fill(dst, i, i + run + 1, c);
+            i += run + 1;
+        }
+        return position - offset;
+    }
+
+    /**
+     * Reads the cluster of each previous character and the code of each
+     * cluster, and builds the table of each cluster
+     */
+    private void readClusters() throws IOException {
+        int count = reader.readBits(8) + 1;
+        if(count > HuffmanEncoder.MAX_CLUSTERS) {
+            throw new IOException("corrupt block");
+        }
+        for(int k = 0; k < count; k++) {
+            if(clusterTables[k] == null) {
+                clusterCodes[k] = new HuffmanCode(HuffmanTree.ALPHABET);
+                clusterTables[k] = new HuffmanDecodeTable();
+            }
+        }
+        int mapBits = 32 - Integer.numberOfLeadingZeros(count - 1);
+        for(int p = 0; p < HuffmanTree.ALPHABET; p++) {
+            int k = mapBits == 0 ? 0 : reader.readBits(mapBits);
+            if(k >= count) {
+                throw new IOException("corrupt block");
+            }
+            contextTables[p] = clusterTables[k];
+        }
+        reader.alignToByte();
+        for(int k = 0; k < count; k++) {
+            clusterCodes[k].read(reader);
+            clusterTables[k].build(clusterCodes[k]);
+        }
+    }
+
+    /**
+     * Decodes the characters of a block coded with clusters, each with the
+     * table of the cluster of the character before it
+     * @param dst where the decoded characters are written
+     * @param from the position of the first character
+     * @param to the end of the characters
+     */
+    private void decodeContexts(byte[] dst, int from, int to) {
+        int previous = 0;
+        for(int i = from; i < to; i++) {
+            previous = contextTables[previous].decode(reader);
+            dst[i] = (byte) previous;
+        }
+    }
+
+    /**
+     * Decodes the block in the remaining bytes of src into dst. The positions
+     * of both buffers are moved past the bytes read and written.
+     * @param src the encoded block
+     * @param dst where the decoded characters are written
+     * @throws IllegalArgumentException if dst does not have room for the characters
+     */
+    public void decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int srcLength = src.remaining();
+        byte[] in;
+        int inOffset;
+        if(src.hasArray()) {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        } else {
+            source = HuffmanEncoder.grow(source, srcLength);
+            src.duplicate().get(source, 0, srcLength);
+            in = source;
+            inOffset = 0;
+        }
+
+        if(srcLength >= 4 && decodedLength(in, inOffset) > dst.remaining()) {
+            throw new IllegalArgumentException("the block has " + decodedLength(in, inOffset)
+                    + " characters but there is room for " + dst.remaining());
+        }
+        if(dst.hasArray()) {
+            int length = decode(in, inOffset, srcLength, dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + length);
+        } else {
+            decoded = HuffmanEncoder.grow(decoded, dst.remaining());
+            int length = decode(in, inOffset, srcLength, decoded, 0);
+            dst.put(decoded, 0, length);
+        }
+        src.position(src.position() + srcLength);
+    }
+
+    /**
+     * Decodes a stream of blocks written by HuffmanEncoder.encode(InputStream,
+     * OutputStream, int) or HuffmanEncode -stream. The block index after the
+     * blocks is read too and checked against the blocks that were decoded.
+     * @param in the stream of encoded blocks
+     * @param out the stream the decoded characters are written to
+     */
+    public void decode(InputStream in, OutputStream out) throws IOException {
+        if(!in.markSupported()) {
+            in = new BufferedInputStream(in, 1 << 16);
+        }
+        HuffmanFormat.expect(in, HuffmanFormat.BLOCKS);
+        DataInputStream d = new DataInputStream(in);
+        HuffmanBlockIndex index = new HuffmanBlockIndex();
+        long position = HuffmanFormat.HEADER_BYTES;
+        int length;
+        while((length = d.readInt()) != 0) {
+            long bits = d.readLong();
+            int read = 4 + 8;   //the length and the bits are already read
+            //the bits count everything after the header
+            long size = HuffmanEncoder.BLOCK_HEADER + (bits + 7) / 8;
+            //no block is longer than its characters and the header
+            if(length < 0 || length > HuffmanEncoder.MAX_BLOCK || bits < 0
+                    || size > HuffmanEncoder.maxEncodedLength(length)) {
+                throw new IOException("corrupt block");
+            }
+            source = HuffmanEncoder.grow(source, (int) size);
+            ByteBuffer header = ByteBuffer.wrap(source);
+            header.putInt(0, length);
+            header.putLong(4, bits);
+            d.readFully(source, read, (int) size - read);
+
+            decoded = HuffmanEncoder.grow(decoded, length);
+            decode(source, 0, (int) size, decoded, 0);
+            out.write(decoded, 0, length);
+            index.add(position, bits, length);
+            position += size;
+        }
+        index.check(d, position + 4);
+        out.flush();
+    }
+}
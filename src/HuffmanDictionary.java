@@ -0,0 +1,322 @@
+/*
+* A code trained ahead of time on a sample of messages and shared by the
+* encoder and the decoder, for compressing many small messages. A message
+* encoded with a dictionary carries only the dictionary's ID and its length
+* instead of its own code lengths, and no tree or heap is built per message.
+*
+* Every character gets a code, even ones that were not in the samples, so any
+* message can be encoded with any dictionary. Loaded dictionaries and their
+* decode tables are kept in a process wide cache; a dictionary is never
+* changed once it is made, so it can be shared by every thread.
+*
+* A dictionary file is
+*     int   the ID
+*     code  the code lengths, as written by HuffmanCode.write
+* and is named by its ID in hex with the .dict extension. A message is
+*     int   the ID of the dictionary
+*     bytes the number of characters, 7 bits per byte with the high bit set
+*           on every byte but the last
+*     bytes the encoded bits
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class HuffmanDictionary {
+    static final String EXTENSION = ".dict";
+
+    private static final ConcurrentHashMap<Path, HuffmanDictionary> CACHE = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final HuffmanCode code;
+    private final HuffmanDecodeTable table;
+
+    /**
+     * Makes a dictionary for a code. The ID is a checksum of the code lengths,
+     * so the same code always has the same ID.
+     * @param code the code, which must give every character a code
+     */
+    public HuffmanDictionary(HuffmanCode code) {
+        this(checksum(code), code);
+    }
+
+    /**
+     * @param id the ID of the dictionary
+     * @param code the code, which must give every character a code
+     */
+    private HuffmanDictionary(int id, HuffmanCode code) {
+        this.id = id;
+        this.code = code;
+        table = new HuffmanDecodeTable(code);
+    }
+
+    /**
+     * @param code a code
+     * @return a checksum of the code lengths
+     */
+    private static int checksum(HuffmanCode code) {
+        CRC32 crc = new CRC32();
+        for(int length : code.getLengths()) {
+            crc.update(length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Trains a dictionary on sample messages. Every character is counted once
+     * more than it occurs so the characters missing from the samples still
+     * get a code.
+     * @param samples the names of the sample files
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @return the dictionary
+     */
+    public static HuffmanDictionary train(List<String> samples, int maxLength) throws IOException {
+        HuffmanHistogram histogram = new HuffmanHistogram();
+        byte[] block = new byte[1 << 16];
+        for(String sample : samples) {
+            try(InputStream in = new FileInputStream(sample)) {
+                int read;
+                while((read = in.read(block)) != -1) {
+                    histogram.add(block, 0, read);
+                }
+            }
+        }
+        long[] frequencies = histogram.getFrequencies();
+        for(int c = 0; c < frequencies.length; c++) {
+            frequencies[c]++;
+        }
+        return new HuffmanDictionary(HuffmanEncode.createCode(frequencies, maxLength));
+    }
+
+    /**
+     * Writes the dictionary into a directory, named by its ID
+     * @param directory the directory
+     * @return the dictionary file
+     */
+    public Path save(Path directory) throws IOException {
+        Path file = fileFor(directory, id);
+        try(DataOutputStream d = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            d.writeInt(id);
+            code.write(d);
+        }
+        return file;
+    }
+
+    /**
+     * @param directory a directory of dictionaries
+     * @param id the ID of a dictionary
+     * @return the name of the dictionary's file in the directory
+     */
+    static Path fileFor(Path directory, int id) {
+        return directory.resolve(String.format("%08x", id) + EXTENSION);
+    }
+
+    /**
+     * Gets a dictionary from the cache, reading its file the first time
+     * @param file the dictionary file
+     * @return the dictionary
+     */
+    public static HuffmanDictionary load(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        HuffmanDictionary dictionary = CACHE.get(key);
+        if(dictionary == null) {
+            dictionary = read(key);
+            HuffmanDictionary other = CACHE.putIfAbsent(key, dictionary);
+            if(other != null) {
+                dictionary = other;
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Gets a dictionary by its ID from a directory of dictionaries
+     * @param directory the directory
+     * @param id the ID
+     * @return the dictionary
+     */
+    public static HuffmanDictionary load(Path directory, int id) throws IOException {
+        HuffmanDictionary dictionary = load(fileFor(directory, id));
+        if(dictionary.id != id) {
+            throw new IOException("the dictionary " + fileFor(directory, id) + " has the ID "
+                    + String.format("%08x", dictionary.id));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads a dictionary file
+     * @param file the file
+     * @return the dictionary
+     */
+    private static HuffmanDictionary read(Path file) throws IOException {
+        try(DataInputStream d = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int id = d.readInt();
+            HuffmanCode code = HuffmanCode.read(d);
+            if(code.getCount() != HuffmanTree.ALPHABET) {
+                throw new IOException("the dictionary " + file + " does not have a code for every character");
+            }
+            return new HuffmanDictionary(id, code);
+        }
+    }
+
+    /**
+     * @return the ID of the dictionary
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @param src an encoded message
+     * @param offset the position of the message
+     * @return the ID of the dictionary the message was encoded with
+     */
+    public static int idOf(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 24) | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+    }
+
+    /**
+     * @param length the number of characters in a message
+     * @return the most bytes the message can be encoded into
+     */
+    public int maxEncodedLength(int length) {
+        return 4 + 5 + (int) (((long) length * code.getMaxLength() + 7) / 8);
+    }
+
+    /**
+     * Encodes a message with the dictionary
+     * @param src the characters
+     * @param srcOffset the position of the first character
+     * @param length the number of characters
+     * @param dst where the message is written
+     * @param dstOffset the position of the first byte to write
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if dst does not have room for the message
+     */
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        long[] codes = code.getCodes();
+        int[] lengths = code.getLengths();
+        HuffmanOutputStream writer = new HuffmanOutputStream(dst, dstOffset, dst.length);
+        writer.writeBits(id & 0xFFFFFFFFL, 32);
+        int rest = length;
+        while(rest >= 0x80) {
+            writer.writeBits(0x80 | (rest & 0x7F), 8);
+            rest >>>= 7;
+        }
+        writer.writeBits(rest, 8);
+        for(int i = srcOffset; i < srcOffset + length; i++) {
+            int c = src[i] & 0xFF;
+            writer.writeBits(codes[c], lengths[c]);
+        }
+        return writer.finish() - dstOffset;
+    }
+
+    /**
+     * @param src an encoded message
+     * @param offset the position of the message
+     * @return the number of characters the message decodes to
+     */
+    public static int decodedLength(byte[] src, int offset) throws IOException {
+        int length = 0;
+        for(int i = 0; i < 5 && offset + 4 + i < src.length; i++) {
+            int b = src[offset + 4 + i] & 0xFF;
+            length |= (b & 0x7F) << (7 * i);
+            if(b < 0x80) {
+                if(length < 0) {
+                    break;
+                }
+                return length;
+            }
+        }
+        throw new IOException("corrupt message length");
+    }
+
+    /**
+     * Decodes a message encoded with this dictionary
+     * @param src the encoded message
+     * @param srcOffset the position of the message
+     * @param srcLength the number of bytes of src that belong to the message
+     * @param dst where the decoded characters are written
+     * @param dstOffset the position of the first character to write
+     * @return the number of characters written
+     * @throws IllegalArgumentException if dst does not have room for the characters
+     */
+    public int decode(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws IOException {
+        if(srcLength < 5) {
+            throw new IOException("truncated message");
+        }
+        if(idOf(src, srcOffset) != id) {
+            throw new IOException("the message was encoded with the dictionary "
+                    + String.format("%08x", idOf(src, srcOffset)));
+        }
+        int length = decodedLength(src, srcOffset);
+        if(length > dst.length - dstOffset) {
+            throw new IllegalArgumentException("the message has " + length + " characters but there is room for "
+                    + (dst.length - dstOffset));
+        }
+
+        HuffmanInputStream reader = new HuffmanInputStream(src, srcOffset, srcLength);
+        reader.readBits(32);
+        while(reader.readBits(8) >= 0x80) {
+            //skip the length
+        }
+        for(int i = dstOffset; i < dstOffset + length; i++) {
+            dst[i] = (byte) table.decode(reader);
+        }
+        if(reader.getBitsRead() > (long) srcLength * 8) {
+            throw new IOException("truncated message");
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a message with the dictionary it names, found in a directory of
+     * dictionaries
+     * @param directory the directory
+     * @param src the encoded message
+     * @return the decoded characters
+     */
+    public static byte[] decode(Path directory, byte[] src) throws IOException {
+        if(src.length < 5) {
+            throw new IOException("truncated message");
+        }
+        HuffmanDictionary dictionary = load(directory, idOf(src, 0));
+        byte[] decoded = new byte[decodedLength(src, 0)];
+        dictionary.decode(src, 0, src.length, decoded, 0);
+        return decoded;
+    }
+
+    /**
+     * Trains a dictionary and saves it
+     * @param args
+     *   args[0] is the directory the dictionary is saved in
+     *   args[1..] are the sample files
+     *   -maxlength n before the directory limits the codes to n bits, from 8 to 63
+     *   (default no limit)
+     */
+    public static void main(String[] args) {
+        int maxLength = 0;
+        int i = 0;
+        if(args.length > 1 && args[0].equals("-maxlength")) {
+            maxLength = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        try {
+            HuffmanEncode.checkLimit(maxLength);
+        } catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        try {
+            HuffmanDictionary dictionary = train(Arrays.asList(args).subList(i + 1, args.length), maxLength);
+            Path file = dictionary.save(Paths.get(args[i]));
+            System.out.println(String.format("%08x", dictionary.getId()) + " " + file);
+        } catch(IOException e) {
+            System.out.println(e);
+        }
+    }
+}
@@ -1,57 +1,134 @@
 /*
-* Used to encode the text file into binary based on the Huffman Tree.
+* Used to encode a file of bytes into binary based on the Huffman Tree.
  */
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 public class HuffmanEncode {
+    static final int MIN_LIMIT = 8;     //the shortest limit on the codes that every byte fits in
 
     /**
      * Implements the main flow of Huffman Encoding.
      * @param in the name of the input file
      * @param out the name of the output file
      */
-    public HuffmanEncode(String in, String out) {
-        //find the frequencies of the characters in the file, store in an int[]
-        int[] test = findFrequency(in);
+    public HuffmanEncode(String in, String out) throws IOException {
+        this(in, out, 0);
+    }
+
+    /**
+     * Implements the main flow of Huffman Encoding with a limit on the length
+     * of the codes.
+     * @param in the name of the input file
+     * @param out the name of the output file
+     * @param maxLength the longest code allowed, 0 for no limit
+     */
+    public HuffmanEncode(String in, String out, int maxLength) throws IOException {
+        HuffmanMetrics metrics = HuffmanStats.metrics();
 
-        //create a BinaryHeap to sort the priorities
-        BinaryHeap priorities = createHeap(test);
+        //find the frequencies of the characters in the file, store in a long[]
+        long start = metrics.start();
+        long[] test = findFrequency(in);
+        metrics.stop(HuffmanMetrics.COUNT, start);
 
-        //create a HuffmanTree using the BinaryHeap
-        HuffmanTree tree = createHuffmanTree(priorities);
+        //create a HuffmanTree by merging the sorted frequencies
+        start = metrics.start();
+        HuffmanTree tree = createHuffmanTree(test);
 
-        //find the encodings for each character in the HuffmanTree, store in a String[]
-        String[] encodings = tree.pathsToLeaves();
+        //find the canonical encodings with the code lengths of the HuffmanTree
+        HuffmanCode code = limitLength(new HuffmanCode(tree), test, maxLength);
+        long[] codes = code.getCodes();
+        int[] lengths = code.getLengths();
+        metrics.stop(HuffmanMetrics.TREE, start);
 
         //get the total number of chars and create a .bin file using a HuffmanOutputStream
-        int totalChars = priorities.priority[1];
-        HuffmanOutputStream writer = new HuffmanOutputStream(out, tree.toString(), totalChars);
-        encodeText(encodings, in, writer);
+        long totalChars = 0;
+        for(long frequency : test) {
+            totalChars += frequency;
+        }
+        start = metrics.start();
+        HuffmanOutputStream writer = new HuffmanOutputStream(out, code, totalChars);
+        long checksum = encodeText(codes, lengths, in, writer);
+
+        //the checksum of the characters follows the last code
+        writer.alignToByte();
+        writer.writeBits(checksum, 32);
         writer.close();
+        metrics.stop(HuffmanMetrics.ENCODE, start);
+        metrics.code(test, lengths);
+        metrics.encoded(totalChars, new File(out).length());
     }
 
     /**
-     * Used to encode the text file and write the encoding in the output file
-     * @param encodingList the encodings for each char
+     * Used to encode the file and write the encoding in the output file
+     * @param codes the code for each char
+     * @param lengths the length of the code for each char
      * @param fileName the name of the input file
      * @param writer the output stream that writes to a binary file
+     * @return the CRC32C of the characters
      */
-    private void encodeText(String[] encodingList, String fileName, HuffmanOutputStream writer) {
-        try {
-            //use a BufferedReader to get each character for encoding.
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            while(reader.ready()) {
-                //get the read character and write its encoding to the binary file
-                int readChar = reader.read();
-                String encoding = encodingList[readChar];
-                for(int i = 0; i < encoding.length(); i++) {
-                    writer.writeBit(encoding.charAt(i));
+    private long encodeText(long[] codes, int[] lengths, String fileName, HuffmanOutputStream writer)
+            throws IOException {
+        CRC32C crc = new CRC32C();
+        //use a BufferedInputStream to get the characters for encoding a block at a time.
+        try(InputStream reader = new BufferedInputStream(new FileInputStream(fileName))) {
+            byte[] block = new byte[1 << 16];
+            int read;
+            while((read = reader.read(block)) != -1) {
+                //write the whole code of each character to the binary file
+                for(int i = 0; i < read; i++) {
+                    int c = block[i] & 0xFF;
+                    writer.writeBits(codes[c], lengths[c]);
                 }
+                crc.update(block, 0, read);
             }
-            reader.close();
-        } catch (IOException e) {
-            System.out.println("file not found");
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Creates the canonical code for a set of frequencies
+     * @param frequencies the frequencies of each char
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @return the code
+     */
+    static HuffmanCode createCode(long[] frequencies, int maxLength) {
+        return new HuffmanCode(new HuffmanLengths(frequencies.length, maxLength).build(frequencies));
+    }
+
+    /**
+     * Replaces a code that has codes longer than maxLength with the best code
+     * that does not, found with PackageMerge
+     * @param code the code made from the HuffmanTree
+     * @param frequencies the frequencies of each char
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @return code, or the limited code if code is too long
+     * @throws IllegalArgumentException if maxLength is not a valid limit
+     */
+    static HuffmanCode limitLength(HuffmanCode code, long[] frequencies, int maxLength) {
+        checkLimit(maxLength);
+        if(maxLength > 0 && code.getMaxLength() > maxLength) {
+            return new HuffmanCode(PackageMerge.codeLengths(frequencies, maxLength));
+        }
+        return code;
+    }
+
+    /**
+     * Checks a limit on the length of the codes. A file or block may hold
+     * every byte, so a limit must give room for MIN_LIMIT bits.
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @throws IllegalArgumentException if maxLength is not 0 or from
+     *         MIN_LIMIT to HuffmanCode.MAX_LENGTH
+     */
+    static void checkLimit(int maxLength) {
+        if(maxLength != 0 && (maxLength < MIN_LIMIT || maxLength > HuffmanCode.MAX_LENGTH)) {
+            throw new IllegalArgumentException("-maxlength must be 0 or from " + MIN_LIMIT + " to "
+                    + HuffmanCode.MAX_LENGTH);
         }
     }
 
@@ -60,9 +137,10 @@ public class HuffmanEncode {
      * @param heap the BinaryHeap the acts as a priority queue
      * @return the resulting HuffmanTree
      */
-    private HuffmanTree createHuffmanTree(BinaryHeap heap) {
-        HuffmanTree left, right, combined;
-        int leftPri, rightPri;
+    static HuffmanTree createHuffmanTree(BinaryHeap heap) {
+        HuffmanTree tree = heap.tree;
+        int left, right, combined;
+        long leftPri, rightPri;
         int length = heap.getSize();
 
         for(int i = 0; i < length - 1; i++) {
@@ -75,66 +153,360 @@ public class HuffmanEncode {
             heap.removeMin();
 
             //combine them into one tree.
-            int combinedPri = leftPri + rightPri;
-            //set right to an empty HuffmanTree if null
-            if(right == null)
-                right = new HuffmanTree();
-            combined = new HuffmanTree(left, (char)128, right);
+            long combinedPri = leftPri + rightPri;
+            combined = tree.addNode(left, right);
 
             //insert new tree into the BinaryHeap to sort and keep track of priority.
             heap.insert(combinedPri, combined);
         }
-        //return the last HuffmanTree in the heap, which is the completed one.
-        return heap.getMinTree();
+        //the last node in the heap is the root of the completed tree.
+        if(length > 0) {
+            tree.setRoot(heap.getMinTree());
+        }
+        return tree;
+    }
+
+    /**
+     * Creates a HuffmanTree in linear time after one sort (the two queue
+     * method). The characters are sorted by frequency once; the merged trees
+     * are made in order of frequency too, so the two smallest trees are always
+     * at the front of the sorted characters or at the front of the queue of
+     * merged trees.
+     * @param freq the frequencies for each char in the file
+     * @return the resulting HuffmanTree
+     * PRE: every frequency fits in 63 bits less the bits of a character
+     */
+    static HuffmanTree createHuffmanTree(long[] freq) {
+        //sort the characters by frequency, the character is kept in the low bits
+        int shift = 32 - Integer.numberOfLeadingZeros(freq.length - 1);
+        long[] leaves = new long[freq.length];
+        int count = 0;
+        for(int i = 0; i < freq.length; i++) {
+            if(freq[i] > 0) {
+                leaves[count++] = (freq[i] << shift) | i;
+            }
+        }
+        Arrays.sort(leaves, 0, count);
+        long mask = (1L << shift) - 1;
+
+        HuffmanTree tree = new HuffmanTree(2 * count - 1);
+        if(count == 1) {
+            tree.addLeaf((char) (leaves[0] & mask));
+            return tree;
+        }
+        long[] weights = new long[count];   //the queue of merged trees
+        int[] nodes = new int[count];
+        int head = 0;
+        int tail = 0;
+        int next = 0;                       //the next character in leaves
+        int[] pair = new int[2];
+        for(int i = 0; i < count - 1; i++) {
+            long weight = 0;
+            for(int j = 0; j < 2; j++) {
+                //take a character on a tie so the tree is as shallow as possible
+                if(next < count && (head == tail || (leaves[next] >>> shift) <= weights[head])) {
+                    pair[j] = tree.addLeaf((char) (leaves[next] & mask));
+                    weight += leaves[next++] >>> shift;
+                } else {
+                    pair[j] = nodes[head];
+                    weight += weights[head++];
+                }
+            }
+            nodes[tail] = tree.addNode(pair[0], pair[1]);
+            weights[tail++] = weight;
+        }
+        if(count > 0) {
+            tree.setRoot(nodes[tail - 1]);
+        }
+        return tree;
     }
 
     /**
      * Creates a BinaryHeap to sort and keep track of the highest priority characters.
-     * Implements a LinkedList to keep track of character found in a file to
-     * prevent unnecessary parsing.
      * @param freq the frequencies for each char in the file
      * @return the new BinaryHeap
      */
-    private BinaryHeap createHeap(int[] freq) {
-        LinkedList<Integer> characters = new LinkedList<>();
+    static BinaryHeap createHeap(long[] freq) {
         int count = 0;
         for(int i = 0; i < freq.length; i++) {
             if(freq[i] > 0) {
                 count++;
-                characters.add(i);
             }
         }
-        //creates a BinaryHeap and inserts the characters in the LinkedList
+        //creates a BinaryHeap and inserts the characters that occur
         BinaryHeap priorities = new BinaryHeap(count);
-        for(int i = 0; i < count; i++) {
-            int nextInsert = characters.getFirst();
-            HuffmanTree newTree = new HuffmanTree((char) nextInsert);
-            priorities.insert(freq[nextInsert], newTree);
-            characters.remove();
+        for(int i = 0; i < freq.length; i++) {
+            if(freq[i] > 0) {
+                int leaf = priorities.tree.addLeaf((char) i);
+                priorities.insert(freq[i], leaf);
+            }
         }
         return priorities;
     }
 
     /**
-     * Reads through a file with a BufferedReader and increments the value in an
-     * array of ints when a character is found.
+     * Counts the characters of a file with a HuffmanHistogram, in parallel
+     * on every processor.
      * @param fileName the input file name
      * @return the array of frequencies
      */
-    private int[] findFrequency(String fileName) {
-        int[] frequencies = new int[128];
+    private long[] findFrequency(String fileName) throws IOException {
+        return HuffmanHistogram.count(fileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Encodes a file through memory mapped windows. The frequencies are
+     * counted in parallel straight from the mapped bytes and, since the size
+     * of the encoding is known once the tree is built, the output file is
+     * mapped at its final size and written in place. The file format is the
+     * same as the one written by the constructor.
+     * @param in the name of the input file
+     * @param out the name of the output file
+     * @param maxLength the longest code allowed, 0 for no limit
+     */
+    public static void encodeMapped(String in, String out, int maxLength) throws IOException {
+        try(FileChannel input = FileChannel.open(Paths.get(in), StandardOpenOption.READ);
+            FileChannel output = FileChannel.open(Paths.get(out), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = input.size();
+            HuffmanMetrics metrics = HuffmanStats.metrics();
+
+            //count the frequencies in parallel from the mapped file
+            long began = metrics.start();
+            long[] frequencies = HuffmanHistogram.countMapped(input, Runtime.getRuntime().availableProcessors());
+            metrics.stop(HuffmanMetrics.COUNT, began);
+            began = metrics.start();
+            HuffmanCode code = createCode(frequencies, maxLength);
+            long[] codes = code.getCodes();
+            int[] lengths = code.getLengths();
+            metrics.stop(HuffmanMetrics.TREE, began);
+
+            //the header and the number of encoded bits give the size of the output
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream d = new DataOutputStream(header);
+            HuffmanFormat.write(d, HuffmanFormat.SINGLE);
+            d.writeLong(size);
+            code.write(d);
+            long bits = 0;
+            for(int c = 0; c < frequencies.length; c++) {
+                bits += frequencies[c] * lengths[c];
+            }
+            long encodedSize = header.size() + (bits + 7) / 8 + 4;
+            began = metrics.start();
+            MappedOutputStream mapped = new MappedOutputStream(output, encodedSize);
+            header.writeTo(mapped);
+
+            HuffmanOutputStream writer = new HuffmanOutputStream(mapped);
+            CRC32C crc = new CRC32C();
+            for(long start = 0; start < size; start += MappedInputStream.WINDOW) {
+                MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MappedInputStream.WINDOW, size - start));
+                for(int i = 0; i < window.limit(); i++) {
+                    int c = window.get(i) & 0xFF;
+                    writer.writeBits(codes[c], lengths[c]);
+                }
+                crc.update(window);
+            }
+            writer.alignToByte();
+            writer.writeBits(crc.getValue(), 32);
+            writer.close();
+            metrics.stop(HuffmanMetrics.ENCODE, began);
+            metrics.code(frequencies, lengths);
+            metrics.encoded(size, encodedSize);
+        }
+    }
+
+    /**
+     * Encodes a stream one block at a time. Each block gets its own HuffmanTree,
+     * so the input is read only once and only a few blocks are held in memory,
+     * which lets the input be a pipe or a socket. The blocks are encoded in
+     * parallel and written in their original order.
+     * The blocks follow a HuffmanFormat header with the BLOCKS layout.
+     * Each block is written as
+     *     int   the number of characters in the block (0 ends the blocks)
+     *     long  the number of bits after the header
+     *     int   the CRC32C of the block's characters
+     *     byte  the mode of the block
+     *     code  the code lengths of the block's HuffmanCode, as written by
+     *           HuffmanCode.write, after the table of pairs if the block has
+     *           one, or the clusters and the code lengths of each
+     *     bytes the encoded bits
+     * (see HuffmanEncoder) and the blocks are followed by a HuffmanBlockIndex.
+     * @param in the stream to encode
+     * @param out the stream the blocks are written to
+     * @param blockSize the largest number of characters in a block
+     * @param threads the number of blocks encoded at the same time
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @param pairs the most pairs of characters each block may code as one,
+     *        0 for none
+     * @param clusters the most codes each block may choose between by the
+     *        previous character, 0 for one code
+     * @throws IllegalArgumentException if blockSize or threads is less than 1,
+     *         or blockSize is more than HuffmanEncoder.MAX_BLOCK
+     */
+    public static void encodeStream(InputStream in, OutputStream out, int blockSize, int threads, int maxLength,
+                                    int pairs, int clusters) throws IOException {
+        if(blockSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("blockSize and threads must be at least 1");
+        }
+        if(blockSize > HuffmanEncoder.MAX_BLOCK) {
+            throw new IllegalArgumentException("blockSize must be at most " + HuffmanEncoder.MAX_BLOCK);
+        }
+        DataOutputStream d = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        HuffmanBlockIndex index = new HuffmanBlockIndex();
+        HuffmanFormat.write(d, HuffmanFormat.BLOCKS);
+        long position = HuffmanFormat.HEADER_BYTES;
         try {
-            //uses a BufferedReader to get each character at a time.
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            while(reader.ready()) {
-                //increment the frequency of the read character
-                frequencies[reader.read()] ++;
+            boolean more = true;
+            while(more || !pending.isEmpty()) {
+                //keep up to two blocks per thread in flight to bound memory
+                while(more && pending.size() < 2 * threads) {
+                    byte[] block = new byte[blockSize];
+                    int length = in.readNBytes(block, 0, blockSize);
+                    if(length == 0) {
+                        more = false;
+                    } else {
+                        pending.add(pool.submit(() -> encodeBlock(block, length, maxLength, pairs, clusters)));
+                    }
+                }
+                if(!pending.isEmpty()) {
+                    byte[] encoded = await(pending.remove());
+                    ByteBuffer header = ByteBuffer.wrap(encoded);
+                    index.add(position, header.getLong(4), header.getInt(0));
+                    d.write(encoded);
+                    position += encoded.length;
+                }
             }
-            reader.close();
-        } catch (IOException e) {
-            System.out.println("file not found");
+        } finally {
+            pool.shutdownNow();
+        }
+        d.writeInt(0);
+        position += 4;
+        index.write(d, position);
+        d.flush();
+    }
+
+    /**
+     * Encodes a stream in one pass with an AdaptiveHuffmanTree. Nothing has to
+     * be counted first and there is no code in the header: each character is
+     * written as soon as it is read, and the finished bytes are flushed
+     * whenever the input has nothing more waiting. The END symbol is followed
+     * by the CRC32C of the characters.
+     * @param in the stream to encode
+     * @param out the stream the encoded bits are written to
+     */
+    public static void encodeAdaptive(InputStream in, OutputStream out) throws IOException {
+        HuffmanMetrics metrics = HuffmanStats.metrics();
+        long start = metrics.start();
+        long characters = 0;
+        AdaptiveHuffmanTree tree = new AdaptiveHuffmanTree();
+        HuffmanFormat.write(new DataOutputStream(out), HuffmanFormat.ADAPTIVE);
+        HuffmanOutputStream writer = new HuffmanOutputStream(out);
+        int[] path = new int[AdaptiveHuffmanTree.SYMBOLS];
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            for(int i = 0; i < read; i++) {
+                writeAdaptive(tree, buffer[i] & 0xFF, path, writer);
+            }
+            crc.update(buffer, 0, read);
+            characters += read;
+            if(in.available() == 0) {
+                writer.flush();
+            }
+        }
+        writeAdaptive(tree, AdaptiveHuffmanTree.END, path, writer);
+        writer.alignToByte();
+        writer.writeBits(crc.getValue(), 32);
+        writer.close();
+        metrics.stop(HuffmanMetrics.ENCODE, start);
+        metrics.encoded(characters, HuffmanFormat.HEADER_BYTES + writer.getBitCount() / 8);
+    }
+
+    /**
+     * Writes one symbol with an AdaptiveHuffmanTree and updates the tree
+     * @param tree the tree
+     * @param c the character or END
+     * @param path space for the path to the symbol's leaf
+     * @param writer where the bits are written
+     */
+    private static void writeAdaptive(AdaptiveHuffmanTree tree, int c, int[] path, HuffmanOutputStream writer) {
+        boolean seen = tree.contains(c);
+        int length = tree.pathTo(c, path);
+
+        //write the path up to 32 bits at a time
+        long bits = 0;
+        int count = 0;
+        for(int i = 0; i < length; i++) {
+            bits = (bits << 1) | path[i];
+            if(++count == 32) {
+                writer.writeBits(bits, 32);
+                bits = 0;
+                count = 0;
+            }
+        }
+        writer.writeBits(bits, count);
+        if(!seen) {
+            writer.writeBits(c, AdaptiveHuffmanTree.SYMBOL_BITS);
+        }
+        tree.update(c);
+    }
+
+    /**
+     * Encodes a message with a trained HuffmanDictionary, so the output has no
+     * code of its own
+     * @param in the stream of the message
+     * @param out the stream the encoded message is written to
+     * @param dictionary the dictionary
+     */
+    public static void encodeWithDictionary(InputStream in, OutputStream out, HuffmanDictionary dictionary)
+            throws IOException {
+        byte[] message = in.readAllBytes();
+        byte[] encoded = new byte[dictionary.maxEncodedLength(message.length)];
+        out.write(encoded, 0, dictionary.encode(message, 0, message.length, encoded, 0));
+        out.flush();
+    }
+
+    /**
+     * Waits for a task and passes on the IOException it threw
+     * @param task the task
+     * @return the result of the task
+     */
+    static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch(ExecutionException e) {
+            //a ForkJoinPool may wrap the exception again when it moves it between threads
+            for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if(cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw new IOException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         }
-        return frequencies;
+    }
+
+    /**
+     * Builds a HuffmanTree for one block and encodes the block with it
+     * @param block the characters of the block
+     * @param length the number of characters in the block
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @param pairs the most pairs of characters the block may code as one
+     * @param clusters the most codes the block may choose between by the
+     *        previous character
+     * @return the header and encoded bits of the block
+     * PRE: length > 0
+     */
+    static byte[] encodeBlock(byte[] block, int length, int maxLength, int pairs, int clusters) {
+        HuffmanEncoder encoder = new HuffmanEncoder(maxLength, pairs, clusters);
+        byte[] encoded = new byte[HuffmanEncoder.maxEncodedLength(length)];
+        return Arrays.copyOf(encoded, encoder.encode(block, 0, length, encoded, 0));
     }
 
     /**
@@ -142,8 +514,120 @@ public class HuffmanEncode {
      * @param args
      *     args[0] is the name of the source file
      *     args[1] is the name of the output file
+     *     with -mmap before the names the file is encoded through memory mapped windows
+     *     with -stream before the names the file is encoded a block at a time,
+     *     and - can be used for standard input or standard output
+     *     -block n sets the number of characters in a block (default 1 MB)
+     *     -threads n sets the number of blocks encoded in parallel (default the
+     *     number of processors)
+     *     -maxlength n limits the codes to n bits, from 8 to 63 (default no limit)
+     *     -pairs n with -stream lets each block give up to n of its most
+     *     frequent pairs of characters codes of their own (at most 256)
+     *     -contexts n with -stream lets each block code each character with
+     *     one of n codes, chosen by the character before it (at most 16)
+     *     with -adaptive before the names the file is encoded in one pass with
+     *     an AdaptiveHuffmanTree and no header, and - can be used for standard
+     *     input or standard output
+     *     -dict file encodes the file with a dictionary made by HuffmanDictionary,
+     *     and - can be used for standard input or standard output
+     *     -stats prints the time of each stage, the sizes and the bits per
+     *     character against the entropy to standard error when done
+     *     the exit status is 1 if the file could not be read or written
      */
     public static void main(String args[]) {
-        new HuffmanEncode(args[0], args[1]);
+        boolean stream = false;
+        boolean mmap = false;
+        boolean adaptive = false;
+        boolean stats = false;
+        String dictionary = null;
+        int blockSize = 1 << 20;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxLength = 0;
+        int pairs = 0;
+        int clusters = 0;
+        int i = 0;
+        for(; i < args.length - 2; i++) {
+            if(args[i].equals("-stream")) {
+                stream = true;
+            } else if(args[i].equals("-mmap")) {
+                mmap = true;
+            } else if(args[i].equals("-adaptive")) {
+                adaptive = true;
+            } else if(args[i].equals("-dict")) {
+                dictionary = args[++i];
+            } else if(args[i].equals("-block")) {
+                blockSize = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-maxlength")) {
+                maxLength = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-pairs")) {
+                pairs = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-contexts")) {
+                clusters = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-stats")) {
+                stats = true;
+            }
+        }
+        try {
+            checkLimit(maxLength);
+        } catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        if(blockSize < 1 || threads < 1) {
+            System.out.println("-block and -threads must be at least 1");
+            System.exit(1);
+        }
+        if(blockSize > HuffmanEncoder.MAX_BLOCK) {
+            System.out.println("-block must be at most " + HuffmanEncoder.MAX_BLOCK);
+            System.exit(1);
+        }
+        if(pairs < 0 || pairs > HuffmanEncoder.MAX_PAIRS) {
+            System.out.println("-pairs must be from 0 to " + HuffmanEncoder.MAX_PAIRS);
+            System.exit(1);
+        }
+        if(clusters < 0 || clusters > HuffmanEncoder.MAX_CLUSTERS) {
+            System.out.println("-contexts must be from 0 to " + HuffmanEncoder.MAX_CLUSTERS);
+            System.exit(1);
+        }
+        HuffmanStats metrics = stats ? HuffmanStats.install() : null;
+        long began = System.nanoTime();
+        boolean failed = false;
+        try {
+            if(!stream && !mmap && !adaptive && dictionary == null) {
+                new HuffmanEncode(args[i], args[i + 1], maxLength);
+                return;
+            }
+            if(mmap) {
+                encodeMapped(args[i], args[i + 1], maxLength);
+                return;
+            }
+            InputStream in = args[i].equals("-") ? System.in : new FileInputStream(args[i]);
+            OutputStream out = args[i + 1].equals("-") ? System.out : new FileOutputStream(args[i + 1]);
+            if(dictionary != null) {
+                encodeWithDictionary(in, out, HuffmanDictionary.load(Paths.get(dictionary)));
+            } else if(adaptive) {
+                encodeAdaptive(in, out);
+            } else {
+                encodeStream(in, out, blockSize, threads, maxLength, pairs, clusters);
+            }
+            in.close();
+            out.close();
+            //System.out keeps its errors to itself
+            if(out == System.out && System.out.checkError()) {
+                throw new IOException("cannot write to standard output");
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            failed = true;
+        } finally {
+            if(metrics != null) {
+                metrics.report(System.err, System.nanoTime() - began);
+            }
+            if(failed) {
+                System.exit(1);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,913 @@
+/*
+* A reusable encoder for embedding the codec in a program. An encoder keeps
+* its tables and buffers between calls, including the arrays its codes are
+* built in, so once its buffers are big enough encoding a block allocates
+* nothing. An encoder must only be used by one thread at a time.
+*
+* Each call encodes one block:
+*     int   the number of characters in the block
+*     long  the number of bits after the header
+*     int   the CRC32C of the characters
+*     byte  the mode, how the rest of the block is coded
+* and then, for each mode
+*     HUFFMAN  the code lengths, as written by HuffmanCode.write, and the
+*              encoded bits
+*     PAIRS    a byte, the number of pairs less 1, the two characters of each
+*              pair, the code lengths and the encoded bits. The pairs are
+*              coded as the characters from ALPHABET up, in the order of the
+*              table.
+*     CONTEXTS a byte, the number of clusters less 1, the cluster of each
+*              previous character (as many bits as the largest cluster needs,
+*              padded to a whole byte), the code lengths of each cluster and
+*              the encoded bits
+*     STREAMS  the code lengths, the number of bytes in each of the first three
+*              streams as ints, and the encoded bits of the four streams, each
+*              padded to a whole byte but the last
+*     STORED   the characters as they are
+*     RUNS     for each run of the same character, the character and the
+*              length of the run less 1, 7 bits to a byte starting with the
+*              lowest, with the high bit set on every byte but the last
+*     REPEATED the one character the whole block is made of
+* which is the same block format HuffmanEncode -stream writes, so blocks
+* encoded here can be decoded by HuffmanDecoder and HuffmanDecode.
+*
+* An encoder made with pairs counts the pairs of characters next to each
+* other as well, and gives the ones that occur most often codes of their own.
+* Repetitive text then takes fewer codes, and the decoder writes two
+* characters for each pair it looks up. The pairs are only used when the
+* block comes out smaller with them, table included.
+*
+* An encoder made with clusters codes each character with a code chosen by
+* the character before it. The 256 previous characters are grouped into a few
+* clusters whose characters are followed by much the same characters, and
+* each cluster gets its own code, so structured text such as CSV or JSON,
+* where what comes next depends on what came before, takes fewer bits. The
+* clusters are found by starting from the most frequent previous characters
+* and moving every previous character to the cluster whose code would code
+* what follows it in the fewest bits, a few times over. There are at most
+* MAX_CLUSTERS codes, so their decoding tables stay small enough for the
+* cache. Like the pairs, the clusters are only used when they make the block
+* smaller.
+*
+* A block with a single code can be written as STREAMS: character i goes to
+* stream i % 4, so the decoder can read four characters at a time from four
+* streams. Finding where a character's code ends no longer waits on the code
+* before it, so the four lookups overlap in the processor instead of running
+* one after the other. The streams cost 15 bytes at most; like the other
+* modes their size is measured against the single stream, and the block is
+* only split when the streams make it no more than 1/STREAM_SHARE larger, so
+* small blocks keep the single stream.
+*
+* Not every block is worth a code. The counted characters give their
+* entropy, the fewest bits any code for them could take; if that is no
+* smaller than the block stored as it is, or as runs, no code is built and
+* the block is written that way, so data that is already compressed costs
+* little more than a copy. A block of one character is written as that
+* character alone, and a block a code turned out not to make smaller is
+* stored, so no block is ever longer than its characters and the header.
+ */
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class HuffmanEncoder {
+    static final int BLOCK_HEADER = 17;                 //the character count, bit count, checksum and mode
+    static final int MAX_BLOCK = 1 << 30;               //the most characters in a block, so a decoder can trust a length up to it
+
+    //the modes of a block
+    static final int HUFFMAN = 0;
+    static final int PAIRS = 1;
+    static final int CONTEXTS = 2;
+    static final int STREAMS = 3;
+    static final int STORED = 4;        //the modes from STORED up have no code
+    static final int RUNS = 5;
+    static final int REPEATED = 6;
+
+    static final int STREAM_COUNT = 4;
+    private static final int STREAM_SHARE = 256;        //the streams may make a block at most 1/256 larger
+
+    static final int MAX_PAIRS = 256;
+    static final int PAIR_ALPHABET = HuffmanTree.ALPHABET + MAX_PAIRS;
+    private static final int MIN_PAIR_COUNT = 8;        //a pair that occurs less often does not pay for its place in the table
+    private static final int MIN_MODEL_BLOCK = 1 << 12; //smaller blocks are not worth counting pairs or contexts in
+    static final int MAX_CLUSTERS = 16;
+    private static final int CLUSTER_ROUNDS = 4;        //the times the previous characters are moved between clusters
+
+    private int maxLength;
+    private int pairs;          //the most pairs a block may have, 0 for none
+    private int clusters;       //the most clusters of previous characters a block may have, 0 for none
+    private HuffmanHistogram histogram;
+    private long[] frequencies;
+    private int[] flatLengths;
+    private long[] streamBits;  //the number of bits in each stream
+    private int uncodedBytes;   //the size of the block without a code, as STORED, RUNS or REPEATED
+    private long codedSize;     //the size of the block with the best code
+    private long codedBits;     //the bits of the last part of the block with the best code
+    private HuffmanLengths codeLengths;
+    private HuffmanCode code;
+    private HuffmanOutputStream writer;
+    private CRC32C crc;
+    private byte[] source;      //a copy of a ByteBuffer that has no array
+    private byte[] encoded;     //the encoded block for ByteBuffers and streams
+
+    //only made when pairs are used
+    private int[] pairCounts;       //the number of times each pair occurs, indexed by (first << 8) | second
+    private int[] pairSymbols;      //the character a chosen pair is coded as, 0 if it is not chosen
+    private long[] ranked;          //the pairs that occur often enough, with their count in the high bits
+    private int[] pairTable;        //the chosen pairs, in the order of their characters
+    private int pairCount;
+    private char[] symbols;         //the block split into characters and pairs
+    private int symbolCount;
+    private long[] pairFrequencies;
+    private HuffmanLengths pairLengths;
+    private HuffmanCode pairCode;
+
+    //only made when clusters are used
+    private int[] contextMap;               //the cluster of each previous character
+    private int clusterCount;
+    private long[][] clusterFrequencies;    //the frequency of each character in each cluster
+    private double[][] costs;               //the bits each cluster's code is expected to give each character
+    private HuffmanCode[] clusterCodes;
+    private int[] renumber;                 //the new number of each cluster as they are gathered
+    private long[][] clusterCodeBits;       //the codes of each cluster, while the block is written
+    private int[][] clusterCodeLengths;
+
+    /**
+     * An encoder with no limit on the length of the codes
+     */
+    public HuffmanEncoder() {
+        this(0);
+    }
+
+    /**
+     * An encoder that limits the length of the codes
+     * @param maxLength the longest code allowed, from 8 up, 0 for no limit
+     */
+    public HuffmanEncoder(int maxLength) {
+        this(maxLength, 0);
+    }
+
+    /**
+     * An encoder that limits the length of the codes and gives the pairs of
+     * characters that occur most often in a block codes of their own
+     * @param maxLength the longest code allowed, from 8 up, 0 for no limit
+     * @param pairs the most pairs a block may have, up to MAX_PAIRS, 0 to
+     *        code only single characters
+     */
+    public HuffmanEncoder(int maxLength, int pairs) {
+        this(maxLength, pairs, 0);
+    }
+
+    /**
+     * An encoder that limits the length of the codes and may code the pairs
+     * of characters that occur most often as one, or code each character
+     * with a code chosen by the character before it
+     * @param maxLength the longest code allowed, from 8 up, 0 for no limit
+     * @param pairs the most pairs a block may have, up to MAX_PAIRS, 0 to
+     *        code only single characters
+     * @param clusters the most codes a block may choose between by the
+     *        previous character, up to MAX_CLUSTERS, 0 for one code
+     */
+    public HuffmanEncoder(int maxLength, int pairs, int clusters) {
+        HuffmanEncode.checkLimit(maxLength);
+        if(pairs < 0 || pairs > MAX_PAIRS) {
+            throw new IllegalArgumentException("pairs must be from 0 to " + MAX_PAIRS);
+        }
+        if(clusters < 0 || clusters > MAX_CLUSTERS) {
+            throw new IllegalArgumentException("clusters must be from 0 to " + MAX_CLUSTERS);
+        }
+        this.maxLength = maxLength;
+        this.pairs = pairs;
+        this.clusters = clusters;
+        histogram = new HuffmanHistogram();
+        flatLengths = new int[HuffmanTree.ALPHABET];
+        streamBits = new long[STREAM_COUNT];
+        codeLengths = new HuffmanLengths(HuffmanTree.ALPHABET, maxLength);
+        code = new HuffmanCode(HuffmanTree.ALPHABET);
+        writer = new HuffmanOutputStream(new byte[0], 0, 0);
+        crc = new CRC32C();
+        source = new byte[0];
+        encoded = new byte[0];
+        if(pairs > 0 || clusters > 0) {
+            pairCounts = new int[1 << 16];
+            ranked = new long[1 << 16];
+        }
+        if(pairs > 0) {
+            pairSymbols = new int[1 << 16];
+            pairTable = new int[pairs];
+            symbols = new char[0];
+            pairFrequencies = new long[PAIR_ALPHABET];
+            pairLengths = new HuffmanLengths(PAIR_ALPHABET, maxLength);
+            pairCode = new HuffmanCode(PAIR_ALPHABET);
+        }
+        if(clusters > 0) {
+            contextMap = new int[HuffmanTree.ALPHABET];
+            clusterFrequencies = new long[clusters][HuffmanTree.ALPHABET];
+            costs = new double[clusters][HuffmanTree.ALPHABET];
+            clusterCodes = new HuffmanCode[clusters];
+            for(int k = 0; k < clusters; k++) {
+                clusterCodes[k] = new HuffmanCode(HuffmanTree.ALPHABET);
+            }
+            renumber = new int[clusters];
+            clusterCodeBits = new long[clusters][];
+            clusterCodeLengths = new int[clusters][];
+        }
+    }
+
+    /**
+     * The most bytes a block can be encoded into. A block that a code does
+     * not make smaller is stored as it is, so the encoding is never longer
+     * than the block and its header.
+     * @param length the number of characters in the block
+     * @return the size of the largest encoding
+     */
+    public static int maxEncodedLength(int length) {
+        return BLOCK_HEADER + length;
+    }
+
+    /**
+     * Encodes a block into an array
+     * @param src the characters
+     * @param srcOffset the position of the first character
+     * @param length the number of characters
+     * @param dst where the encoded block is written
+     * @param dstOffset the position of the first byte to write
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if dst does not have room for the encoded block
+     */
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        return encode(src, srcOffset, length, dst, dstOffset, dst.length);
+    }
+
+    /**
+     * Encodes a block into part of an array
+     * @param src the characters
+     * @param srcOffset the position of the first character
+     * @param length the number of characters
+     * @param dst where the encoded block is written
+     * @param dstOffset the position of the first byte to write
+     * @param dstEnd the end of the space that may be written
+     * @return the number of bytes written
+     */
+    private int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int dstEnd) {
+        HuffmanMetrics metrics = HuffmanStats.metrics();
+        int different = count(src, srcOffset, length, metrics);
+        int uncoded = chooseUncoded(src, srcOffset, length, different);
+        int mode = uncoded;
+        long size = BLOCK_HEADER + uncodedBytes;
+        long bits = 8L * uncodedBytes;
+        if(different > 1 && (pairs > 0 || clusters > 0 || entropyBytes(length) < uncodedBytes)) {
+            mode = buildCodes(src, srcOffset, length, different, metrics);
+            size = codedSize;
+            bits = codedBits;
+            if(size >= BLOCK_HEADER + uncodedBytes) {
+                mode = uncoded;
+                size = BLOCK_HEADER + uncodedBytes;
+                bits = 8L * uncodedBytes;
+            }
+        }
+        if(size > dstEnd - dstOffset) {
+            throw new IllegalArgumentException("the encoded block needs " + size + " bytes but there are "
+                    + (dstEnd - dstOffset));
+        }
+
+        long start = metrics.start();
+        crc.reset();
+        crc.update(src, srcOffset, length);
+        writer.reset(dst, dstOffset, dstEnd);
+        writer.writeBits(length, 32);
+        writer.writeBits((size - BLOCK_HEADER - (bits + 7) / 8) * 8 + bits, 64);
+        writer.writeBits(crc.getValue(), 32);
+        writer.writeBits(mode, 8);
+        int written;
+        if(mode >= STORED) {
+            written = writeUncoded(mode, src, srcOffset, length, dst, writer.finish()) - dstOffset;
+        } else {
+            writeCoded(mode, src, srcOffset, length);
+            written = writer.finish() - dstOffset;
+        }
+        metrics.stop(HuffmanMetrics.ENCODE, start);
+        if(mode == PAIRS) {
+            metrics.code(pairFrequencies, pairCode.getLengths());
+        } else if(mode == CONTEXTS) {
+            for(int k = 0; k < clusterCount; k++) {
+                metrics.code(clusterFrequencies[k], clusterCodes[k].getLengths());
+            }
+        } else if(mode < STORED) {
+            metrics.code(frequencies, code.getLengths());
+        }
+        metrics.encoded(length, written);
+        return written;
+    }
+
+    /**
+     * Builds the code for the block and, if the encoder was made with them,
+     * the pairs and the clusters, and finds which of them makes the block
+     * smallest. Its size is left in codedSize and the bits of the last part
+     * of it in codedBits.
+     * @param src the characters
+     * @param srcOffset the position of the first character
+     * @param length the number of characters
+     * @param different the number of different characters
+     * @param metrics where the time of each stage is reported
+     * @return HUFFMAN, PAIRS, CONTEXTS or STREAMS
+     */
+    private int buildCodes(byte[] src, int srcOffset, int length, int different, HuffmanMetrics metrics) {
+        long bits = buildCode(length, different, metrics);
+        long size = BLOCK_HEADER + code.headerBytes() + (bits + 7) / 8;
+        int mode = HUFFMAN;
+        if(pairs > 0 && length >= MIN_MODEL_BLOCK) {
+            long pairBits = buildPairCode(src, srcOffset, length, different, metrics);
+            long pairSize = BLOCK_HEADER + 1 + 2 * pairCount + pairCode.headerBytes() + (pairBits + 7) / 8;
+            if(pairCount > 0 && pairSize < size) {
+                mode = PAIRS;
+                size = pairSize;
+                bits = pairBits;
+            }
+        }
+        if(clusters > 0 && length >= MIN_MODEL_BLOCK) {
+            long contextBits = buildContextCodes(src, srcOffset, length, metrics);
+            long contextSize = BLOCK_HEADER + 1 + contextMapBytes() + (contextBits + 7) / 8;
+            for(int k = 0; k < clusterCount; k++) {
+                contextSize += clusterCodes[k].headerBytes();
+            }
+            if(contextSize < size) {
+                mode = CONTEXTS;
+                size = contextSize;
+                bits = contextBits;
+            }
+        }
+        if(mode == HUFFMAN && length >= MIN_MODEL_BLOCK) {
+            long streamSize = BLOCK_HEADER + code.headerBytes() + (STREAM_COUNT - 1) * 4;
+            countStreamBits(src, srcOffset, length);
+            for(int k = 0; k < STREAM_COUNT - 1; k++) {
+                streamSize += (streamBits[k] + 7) / 8;
+            }
+            long lastBits = streamBits[STREAM_COUNT - 1];
+            streamSize += (lastBits + 7) / 8;
+            //the streams never save bits, they are only worth a small cost in size for the faster decoding
+            if(streamSize <= size + size / STREAM_SHARE) {
+                mode = STREAMS;
+                size = streamSize;
+                bits = lastBits;
+            }
+        }
+        codedSize = size;
+        codedBits = bits;
+        return mode;
+    }
+
+    /**
+     * Writes the body of a coded block
+     * @param mode HUFFMAN, PAIRS, CONTEXTS or STREAMS
+     * @param src the characters
+     * @param srcOffset the position of the first character
+     * @param length the number of characters
+     */
+    private void writeCoded(int mode, byte[] src, int srcOffset, int length) {
+        if(mode == PAIRS) {
+            writer.writeBits(pairCount - 1, 8);
+            for(int j = 0; j < pairCount; j++) {
+                writer.writeBits(pairTable[j], 16);
+            }
+            pairCode.write(writer);
+            long[] codes = pairCode.getCodes();
+            int[] lengths = pairCode.getLengths();
+            for(int i = 0; i < symbolCount; i++) {
+                int s = symbols[i];
+                writer.writeBits(codes[s], lengths[s]);
+            }
+        } else if(mode == CONTEXTS) {
+            writeContextCodes(src, srcOffset, length);
+        } else if(mode == STREAMS) {
+            writeStreams(src, srcOffset, length);
+        } else {
+            code.write(writer);
+            long[] codes = code.getCodes();
+            int[] lengths = code.getLengths();
+            for(int i = srcOffset; i < srcOffset + length; i++) {
+                int c = src[i] & 0xFF;
+                writer.writeBits(codes[c], lengths[c]);
+            }
+        }
+    }
+
+    /**
+     * Writes the body of a block that has no code straight into the array
+     * @param mode STORED, RUNS or REPEATED
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     * @param dst where the block is written
+     * @param position the position of the first byte to write
+     * @return the position after the last byte written
+     */
+    private static int writeUncoded(int mode, byte[] src, int offset, int length, byte[] dst, int position) {
+        if(mode == STORED) {
+            System.arraycopy(src, offset, dst, position, length);
+            return position + length;
+        }
+        if(mode == REPEATED) {
+            dst[position] = src[offset];
+            return position + 1;
+        }
+        int end = offset + length;
+        int i = offset;
+        while(i < end) {
+            int run = runLength(src, i, end);
+            dst[position++] = src[i];
+            int rest = run - 1;
+            while(rest >= 0x80) {
+                dst[position++] = (byte) (rest | 0x80);
+                rest >>>= 7;
+            }
+            dst[position++] = (byte) rest;
+            i += run;
+        }
+        return position;
+    }
+
+    /**
+     * @param src the characters
+     * @param i the position of the first character of a run
+     * @param end the end of the characters
+     * @return the number of characters from i that are the same
+     */
+    private static int runLength(byte[] src, int i, int end) {
+        int j = i + 1;
+        while(j < end && src[j] == src[i]) {
+            j++;
+        }
+        return j - i;
+    }
+
+    /**
+     * Chooses how the block is written without a code, whichever of
+     * REPEATED, RUNS and STORED is smallest, and leaves its size in
+     * uncodedBytes
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     * @param different the number of different characters
+     * @return the mode
+     */
+    private int chooseUncoded(byte[] src, int offset, int length, int different) {
+        if(different == 1) {
+            uncodedBytes = 1;
+            return REPEATED;
+        }
+        //count the bytes of the runs, giving up once they are no smaller than the block
+        int bytes = 0;
+        int end = offset + length;
+        int i = offset;
+        while(i < end && bytes < length) {
+            int run = runLength(src, i, end);
+            int lengthBits = 32 - Integer.numberOfLeadingZeros(run - 1);
+            bytes += 1 + Math.max(1, (lengthBits + 6) / 7);
+            i += run;
+        }
+        if(bytes < length) {
+            uncodedBytes = bytes;
+            return RUNS;
+        }
+        uncodedBytes = length;
+        return STORED;
+    }
+
+    /**
+     * @param length the number of characters counted
+     * @return the fewest bytes a block coded with one code for the counted
+     *         characters could take after its header: the entropy of the
+     *         characters and the smallest code lengths
+     */
+    private long entropyBytes(int length) {
+        double bits = 0;
+        for(long frequency : frequencies) {
+            if(frequency > 0) {
+                bits += frequency * Math.log((double) length / frequency);
+            }
+        }
+        return 4 + (long) (bits / Math.log(2) / 8);
+    }
+
+    /**
+     * Encodes the remaining characters of src into dst. The positions of both
+     * buffers are moved past the bytes read and written.
+     * @param src the characters
+     * @param dst where the encoded block is written
+     * @throws IllegalArgumentException if dst does not have room for the encoded block
+     */
+    public void encode(ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        byte[] in;
+        int inOffset;
+        if(src.hasArray()) {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        } else {
+            source = grow(source, length);
+            src.duplicate().get(source, 0, length);
+            in = source;
+            inOffset = 0;
+        }
+
+        if(dst.hasArray()) {
+            int dstOffset = dst.arrayOffset() + dst.position();
+            int written = encode(in, inOffset, length, dst.array(), dstOffset, dst.arrayOffset() + dst.limit());
+            dst.position(dst.position() + written);
+        } else {
+            encoded = grow(encoded, maxEncodedLength(length));
+            int written = encode(in, inOffset, length, encoded, 0);
+            if(written > dst.remaining()) {
+                throw new IllegalArgumentException("the encoded block needs " + written + " bytes but there are "
+                        + dst.remaining());
+            }
+            dst.put(encoded, 0, written);
+        }
+        src.position(src.position() + length);
+    }
+
+    /**
+     * Encodes a stream a block at a time, in the format of HuffmanEncode.encodeStream
+     * @param in the stream to encode
+     * @param out the stream the blocks and the block index are written to
+     * @param blockSize the largest number of characters in a block
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if blockSize is less than 1 or more than MAX_BLOCK
+     */
+    public long encode(InputStream in, OutputStream out, int blockSize) throws IOException {
+        if(blockSize < 1 || blockSize > MAX_BLOCK) {
+            throw new IllegalArgumentException("blockSize must be from 1 to " + MAX_BLOCK);
+        }
+        DataOutputStream d = new DataOutputStream(out);
+        HuffmanBlockIndex index = new HuffmanBlockIndex();
+        source = grow(source, blockSize);
+        encoded = grow(encoded, maxEncodedLength(blockSize));
+        HuffmanFormat.write(d, HuffmanFormat.BLOCKS);
+        long position = HuffmanFormat.HEADER_BYTES;
+        int length;
+        while((length = in.readNBytes(source, 0, blockSize)) > 0) {
+            int size = encode(source, 0, length, encoded, 0);
+            index.add(position, ByteBuffer.wrap(encoded).getLong(4), length);
+            d.write(encoded, 0, size);
+            position += size;
+        }
+        d.writeInt(0);
+        index.write(d, position + 4);
+        d.flush();
+        return position + 4 + 4 + index.size() * 20L + 8;
+    }
+
+    /**
+     * Counts the characters
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     * @param metrics where the time of each stage is reported
+     * @return the number of different characters
+     */
+    private int count(byte[] src, int offset, int length, HuffmanMetrics metrics) {
+        long start = metrics.start();
+        histogram.clear();
+        histogram.add(src, offset, length);
+        frequencies = histogram.getFrequencies();
+        int different = 0;
+        for(int c = 0; c < frequencies.length; c++) {
+            if(frequencies[c] > 0) {
+                different++;
+            }
+        }
+        metrics.stop(HuffmanMetrics.COUNT, start);
+        return different;
+    }
+
+    /**
+     * Makes the code for the counted characters. If a code of one fixed
+     * length for every character that occurs would be shorter, that code is
+     * used instead.
+     * @param length the number of characters
+     * @param different the number of different characters
+     * @param metrics where the time of each stage is reported
+     * @return the number of encoded bits
+     * PRE: different > 0
+     */
+    private long buildCode(int length, int different, HuffmanMetrics metrics) {
+        long start = metrics.start();
+        code.set(codeLengths.build(frequencies));
+        long bits = encodedBits();
+        int flat = Math.max(1, 32 - Integer.numberOfLeadingZeros(different - 1));
+        if((long) flat * length < bits) {
+            for(int c = 0; c < frequencies.length; c++) {
+                flatLengths[c] = frequencies[c] > 0 ? flat : 0;
+            }
+            code.set(flatLengths);
+            bits = (long) flat * length;
+        }
+        metrics.stop(HuffmanMetrics.TREE, start);
+        return bits;
+    }
+
+    /**
+     * Chooses the pairs of characters that occur most often, no more than
+     * leave room for every character in codes of maxLength bits, splits the
+     * block into single characters and those pairs, taking a pair wherever
+     * one starts, and makes the code for them
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     * @param different the number of different characters
+     * @param metrics where the time of each stage is reported
+     * @return the number of encoded bits
+     */
+    private long buildPairCode(byte[] src, int offset, int length, int different, HuffmanMetrics metrics) {
+        long start = metrics.start();
+        countPairs(src, offset, length);
+        int end = offset + length;
+        int candidates = 0;
+        for(int p = 0; p < pairCounts.length; p++) {
+            if(pairCounts[p] >= MIN_PAIR_COUNT) {
+                ranked[candidates++] = ((long) pairCounts[p] << 16) | p;
+            }
+        }
+        Arrays.sort(ranked, 0, candidates);
+        pairCount = Math.min(pairs, candidates);
+        if(maxLength > 0) {
+            //the characters and the pairs must all fit in codes of maxLength bits
+            pairCount = (int) Math.max(0, Math.min(pairCount, (1L << Math.min(maxLength, 62)) - different));
+        }
+        for(int j = 0; j < pairCount; j++) {
+            pairTable[j] = (int) (ranked[candidates - 1 - j] & 0xFFFF);
+            pairSymbols[pairTable[j]] = HuffmanTree.ALPHABET + j;
+        }
+
+        symbols = symbols.length >= length ? symbols : new char[length];
+        symbolCount = 0;
+        Arrays.fill(pairFrequencies, 0);
+        int i = offset;
+        while(i < end) {
+            int c = src[i] & 0xFF;
+            int symbol = i + 1 < end ? pairSymbols[(c << 8) | (src[i + 1] & 0xFF)] : 0;
+            if(symbol == 0) {
+                symbol = c;
+                i++;
+            } else {
+                i += 2;
+            }
+            symbols[symbolCount++] = (char) symbol;
+            pairFrequencies[symbol]++;
+        }
+        for(int j = 0; j < pairCount; j++) {
+            pairSymbols[pairTable[j]] = 0;
+        }
+        metrics.stop(HuffmanMetrics.COUNT, start);
+
+        start = metrics.start();
+        pairCode.set(pairLengths.build(pairFrequencies));
+        int[] lengths = pairCode.getLengths();
+        long bits = 0;
+        for(int s = 0; s < pairFrequencies.length; s++) {
+            bits += pairFrequencies[s] * lengths[s];
+        }
+        metrics.stop(HuffmanMetrics.TREE, start);
+        return bits;
+    }
+
+    /**
+     * Adds up the bits of the characters that go to each stream
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     */
+    private void countStreamBits(byte[] src, int offset, int length) {
+        int[] lengths = code.getLengths();
+        Arrays.fill(streamBits, 0);
+        for(int i = 0; i < length; i++) {
+            streamBits[i & (STREAM_COUNT - 1)] += lengths[src[offset + i] & 0xFF];
+        }
+    }
+
+    /**
+     * Writes the code, the sizes of the streams and the characters of a block
+     * into the streams, one after the other
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     */
+    private void writeStreams(byte[] src, int offset, int length) {
+        code.write(writer);
+        for(int k = 0; k < STREAM_COUNT - 1; k++) {
+            writer.writeBits((streamBits[k] + 7) / 8, 32);
+        }
+        long[] codes = code.getCodes();
+        int[] lengths = code.getLengths();
+        for(int k = 0; k < STREAM_COUNT; k++) {
+            for(int i = offset + k; i < offset + length; i += STREAM_COUNT) {
+                int c = src[i] & 0xFF;
+                writer.writeBits(codes[c], lengths[c]);
+            }
+            if(k < STREAM_COUNT - 1) {
+                writer.alignToByte();
+            }
+        }
+    }
+
+    /**
+     * Counts the pairs of characters next to each other into pairCounts
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     */
+    private void countPairs(byte[] src, int offset, int length) {
+        Arrays.fill(pairCounts, 0);
+        for(int i = offset; i < offset + length - 1; i++) {
+            pairCounts[((src[i] & 0xFF) << 8) | (src[i + 1] & 0xFF)]++;
+        }
+    }
+
+    /**
+     * Groups the previous characters into clusters and makes the code of
+     * each cluster
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     * @param metrics where the time of each stage is reported
+     * @return the number of encoded bits
+     */
+    private long buildContextCodes(byte[] src, int offset, int length, HuffmanMetrics metrics) {
+        long start = metrics.start();
+        countPairs(src, offset, length);
+        pairCounts[src[offset] & 0xFF]++;       //the first character follows character 0
+        metrics.stop(HuffmanMetrics.COUNT, start);
+
+        //the most frequent previous characters start the clusters
+        start = metrics.start();
+        int used = 0;
+        for(int p = 0; p < HuffmanTree.ALPHABET; p++) {
+            long total = 0;
+            for(int c = 0; c < HuffmanTree.ALPHABET; c++) {
+                total += pairCounts[(p << 8) | c];
+            }
+            if(total > 0) {
+                ranked[used++] = (total << 8) | p;
+            }
+        }
+        Arrays.sort(ranked, 0, used);
+        clusterCount = Math.min(clusters, used);
+        for(int k = 0; k < clusterCount; k++) {
+            int p = (int) (ranked[used - 1 - k] & 0xFF);
+            Arrays.fill(clusterFrequencies[k], 0);
+            addContext(clusterFrequencies[k], p);
+        }
+
+        //move each previous character to the cluster that codes what follows it best
+        Arrays.fill(contextMap, 0);
+        for(int round = 0; round < CLUSTER_ROUNDS; round++) {
+            for(int k = 0; k < clusterCount; k++) {
+                estimateCosts(clusterFrequencies[k], costs[k]);
+            }
+            for(int j = 0; j < used; j++) {
+                int p = (int) (ranked[j] & 0xFF);
+                int best = 0;
+                double bestCost = Double.MAX_VALUE;
+                for(int k = 0; k < clusterCount; k++) {
+                    double cost = 0;
+                    for(int c = 0; c < HuffmanTree.ALPHABET; c++) {
+                        cost += pairCounts[(p << 8) | c] * costs[k][c];
+                    }
+                    if(cost < bestCost) {
+                        best = k;
+                        bestCost = cost;
+                    }
+                }
+                contextMap[p] = best;
+            }
+            gatherClusters(used);
+        }
+
+        long bits = 0;
+        for(int k = 0; k < clusterCount; k++) {
+            clusterCodes[k].set(codeLengths.build(clusterFrequencies[k]));
+            int[] lengths = clusterCodes[k].getLengths();
+            for(int c = 0; c < HuffmanTree.ALPHABET; c++) {
+                bits += clusterFrequencies[k][c] * lengths[c];
+            }
+        }
+        metrics.stop(HuffmanMetrics.TREE, start);
+        return bits;
+    }
+
+    /**
+     * Adds the characters that follow a previous character to a cluster
+     * @param frequencies the frequencies of the cluster
+     * @param previous the previous character
+     */
+    private void addContext(long[] frequencies, int previous) {
+        for(int c = 0; c < HuffmanTree.ALPHABET; c++) {
+            frequencies[c] += pairCounts[(previous << 8) | c];
+        }
+    }
+
+    /**
+     * Counts the characters of each cluster again for the previous characters
+     * now in it, and drops the clusters that are left with none, so the
+     * clusters in use are numbered from 0
+     * @param used the number of previous characters in ranked
+     */
+    private void gatherClusters(int used) {
+        Arrays.fill(renumber, 0, clusterCount, -1);
+        int count = 0;
+        for(int j = 0; j < used; j++) {
+            int p = (int) (ranked[j] & 0xFF);
+            if(renumber[contextMap[p]] < 0) {
+                renumber[contextMap[p]] = count;
+                Arrays.fill(clusterFrequencies[count], 0);
+                count++;
+            }
+            contextMap[p] = renumber[contextMap[p]];
+            addContext(clusterFrequencies[contextMap[p]], p);
+        }
+        clusterCount = count;
+    }
+
+    /**
+     * Estimates the bits a code made for some frequencies would give each
+     * character, with a little room for the characters it has not seen
+     * @param frequencies the frequencies of a cluster
+     * @param cost filled with the bits of each character
+     */
+    private static void estimateCosts(long[] frequencies, double[] cost) {
+        double total = HuffmanTree.ALPHABET / 2.0;
+        for(long frequency : frequencies) {
+            total += frequency;
+        }
+        for(int c = 0; c < frequencies.length; c++) {
+            cost[c] = Math.log(total / (frequencies[c] + 0.5)) / Math.log(2);
+        }
+    }
+
+    /**
+     * @return the number of bytes the cluster of each previous character takes
+     */
+    private int contextMapBytes() {
+        return (HuffmanTree.ALPHABET * mapBits() + 7) / 8;
+    }
+
+    /**
+     * @return the number of bits the cluster of each previous character takes
+     */
+    private int mapBits() {
+        return 32 - Integer.numberOfLeadingZeros(clusterCount - 1);
+    }
+
+    /**
+     * Writes the clusters, their codes and the characters of a block, each
+     * with the code of the cluster of the character before it
+     * @param src the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     */
+    private void writeContextCodes(byte[] src, int offset, int length) {
+        writer.writeBits(clusterCount - 1, 8);
+        int mapBits = mapBits();
+        for(int p = 0; p < HuffmanTree.ALPHABET; p++) {
+            writer.writeBits(contextMap[p], mapBits);
+        }
+        writer.alignToByte();
+        long[][] codes = clusterCodeBits;
+        int[][] lengths = clusterCodeLengths;
+        for(int k = 0; k < clusterCount; k++) {
+            clusterCodes[k].write(writer);
+            codes[k] = clusterCodes[k].getCodes();
+            lengths[k] = clusterCodes[k].getLengths();
+        }
+        int previous = 0;
+        for(int i = offset; i < offset + length; i++) {
+            int c = src[i] & 0xFF;
+            int k = contextMap[previous];
+            writer.writeBits(codes[k][c], lengths[k][c]);
+            previous = c;
+        }
+    }
+
+    /**
+     * @return the number of bits the counted characters take with the code
+     */
+    private long encodedBits() {
+        int[] lengths = code.getLengths();
+        long bits = 0;
+        for(int c = 0; c < frequencies.length; c++) {
+            bits += frequencies[c] * lengths[c];
+        }
+        return bits;
+    }
+
+    /**
+     * @param buffer a buffer
+     * @param size the size needed
+     * @return buffer, or a bigger buffer if it is too small
+     */
+    static byte[] grow(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[size];
+    }
+}
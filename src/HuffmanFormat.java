@@ -0,0 +1,119 @@
+/*
+* The header at the start of every encoded file
+*     int   MAGIC, the letters HUFF
+*     byte  the version of the format
+*     byte  the layout of the rest of the file
+* The layouts are
+*     SINGLE    long the number of characters, the code lengths and the bits
+*               of the whole file (HuffmanEncode and HuffmanEncode -mmap)
+*     BLOCKS    blocks that each have their own code, then the block index
+*               (HuffmanEncode -stream and HuffmanEncoder)
+*     ADAPTIVE  the bits of an AdaptiveHuffmanTree (HuffmanEncode -adaptive)
+*     ARCHIVE   many files of blocks and a directory of them (HuffmanBatch -archive)
+* Every count of characters is 64 bits, so a file is not limited to 2^31
+* characters.
+*
+* Every layout carries a CRC32C of the characters it encodes: each block has
+* the checksum of its characters in its header, and the SINGLE and ADAPTIVE
+* layouts end with the checksum of the whole file after the last encoded bit,
+* padded to a whole byte. Each block also says how it is coded in its header
+* (see HuffmanEncoder), so blocks can use a larger alphabet than single
+* characters.
+*
+* There is one version of the format; a file with another version, or with
+* no header, is not read.
+ */
+import java.io.*;
+
+public class HuffmanFormat {
+    static final int MAGIC = 0x48554646;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 6;
+
+    static final int ANY = -1;      //not a layout: the layout is taken from the header
+    static final int SINGLE = 0;
+    static final int BLOCKS = 1;
+    static final int ADAPTIVE = 2;
+    static final int ARCHIVE = 3;
+
+    /**
+     * Writes the header
+     * @param d the stream positioned at the start of the file
+     * @param layout SINGLE, BLOCKS, ADAPTIVE or ARCHIVE
+     */
+    static void write(DataOutputStream d, int layout) throws IOException {
+        d.writeInt(MAGIC);
+        d.writeByte(VERSION);
+        d.writeByte(layout);
+    }
+
+    /**
+     * Reads the header
+     * @param in the stream positioned at the start of the file
+     * @return the layout of the file
+     * @throws IOException if the file has no header or a version or layout
+     *         this format does not have
+     */
+    static int read(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_BYTES];
+        if(in.readNBytes(header, 0, HEADER_BYTES) < HEADER_BYTES) {
+            throw new EOFException("the file ends inside its header");
+        }
+        int magic = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+                | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        if(magic != MAGIC) {
+            throw new IOException("not an encoded file");
+        }
+        if(header[4] != VERSION) {
+            throw new IOException("unsupported format version " + header[4]);
+        }
+        if(header[5] < SINGLE || header[5] > ARCHIVE) {
+            throw new IOException("unknown layout " + header[5]);
+        }
+        return header[5];
+    }
+
+    /**
+     * Finds the layout of a file without reading past its start
+     * @param in the stream positioned at the start of the file
+     * @return the layout of the file
+     * PRE: in supports mark()
+     */
+    static int peek(InputStream in) throws IOException {
+        in.mark(HEADER_BYTES);
+        int layout = read(in);
+        in.reset();
+        return layout;
+    }
+
+    /**
+     * Reads the header and makes sure the file has the expected layout
+     * @param in the stream positioned at the start of the file
+     * @param layout the expected layout
+     */
+    static void expect(InputStream in, int layout) throws IOException {
+        int found = read(in);
+        if(found != layout) {
+            throw new IOException("the file has the layout " + name(found) + ", not " + name(layout));
+        }
+    }
+
+    /**
+     * @param layout a layout
+     * @return the name of the layout
+     */
+    static String name(int layout) {
+        switch(layout) {
+            case SINGLE:
+                return "single";
+            case BLOCKS:
+                return "blocks";
+            case ADAPTIVE:
+                return "adaptive";
+            case ARCHIVE:
+                return "archive";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+* Counts how often each character occurs. The characters are counted into
+* four int arrays in turn, so that a run of the same character does not wait
+* on the increment before it (each store to a counter has to finish before the
+* next load of the same counter). The arrays are added into 64 bit totals
+* before an int could overflow, so counts are exact for any size of input.
+*
+* A file is counted in parallel: each thread counts its own part of the file
+* with its own histogram and the totals are added at the end. The parts are
+* either read a chunk at a time or counted straight from memory mapped
+* windows of the file.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HuffmanHistogram {
+    private static final int CHUNK = 1 << 20;       //the bytes read at a time from a file
+
+    private int[] count0;
+    private int[] count1;
+    private int[] count2;
+    private int[] count3;
+    private long[] totals;
+    private long pending;   //characters counted in the int arrays but not yet in totals
+
+    /**
+     * An empty histogram
+     */
+    public HuffmanHistogram() {
+        count0 = new int[HuffmanTree.ALPHABET];
+        count1 = new int[HuffmanTree.ALPHABET];
+        count2 = new int[HuffmanTree.ALPHABET];
+        count3 = new int[HuffmanTree.ALPHABET];
+        totals = new long[HuffmanTree.ALPHABET];
+        pending = 0;
+    }
+
+    /**
+     * Counts the characters of part of an array
+     * @param block the characters
+     * @param offset the position of the first character
+     * @param length the number of characters
+     */
+    public void add(byte[] block, int offset, int length) {
+        if(pending + length > Integer.MAX_VALUE) {
+            flush();
+        }
+        pending += length;
+        int i = offset;
+        int end = offset + length;
+        for(; i + 4 <= end; i += 4) {
+            count0[block[i] & 0xFF]++;
+            count1[block[i + 1] & 0xFF]++;
+            count2[block[i + 2] & 0xFF]++;
+            count3[block[i + 3] & 0xFF]++;
+        }
+        for(; i < end; i++) {
+            count0[block[i] & 0xFF]++;
+        }
+    }
+
+    /**
+     * Counts the characters of a buffer from its position to its limit,
+     * without moving its position
+     * @param buffer the characters
+     */
+    public void add(ByteBuffer buffer) {
+        int i = buffer.position();
+        int end = buffer.limit();
+        if(pending + (end - i) > Integer.MAX_VALUE) {
+            flush();
+        }
+        pending += end - i;
+        for(; i + 4 <= end; i += 4) {
+            count0[buffer.get(i) & 0xFF]++;
+            count1[buffer.get(i + 1) & 0xFF]++;
+            count2[buffer.get(i + 2) & 0xFF]++;
+            count3[buffer.get(i + 3) & 0xFF]++;
+        }
+        for(; i < end; i++) {
+            count0[buffer.get(i) & 0xFF]++;
+        }
+    }
+
+    /**
+     * Adds the int arrays into the totals and clears them
+     */
+    private void flush() {
+        for(int c = 0; c < totals.length; c++) {
+            totals[c] += (long) count0[c] + count1[c] + count2[c] + count3[c];
+        }
+        Arrays.fill(count0, 0);
+        Arrays.fill(count1, 0);
+        Arrays.fill(count2, 0);
+        Arrays.fill(count3, 0);
+        pending = 0;
+    }
+
+    /**
+     * Empties the histogram so it can be reused
+     */
+    public void clear() {
+        flush();
+        Arrays.fill(totals, 0);
+    }
+
+    /**
+     * @return the frequency of each character, which stays valid until the
+     *         histogram is changed
+     */
+    public long[] getFrequencies() {
+        flush();
+        return totals;
+    }
+
+    /**
+     * Counts the characters of an array
+     * @param block the characters
+     * @param length the number of characters
+     * @return the frequency of each character
+     */
+    public static long[] count(byte[] block, int length) {
+        HuffmanHistogram histogram = new HuffmanHistogram();
+        histogram.add(block, 0, length);
+        return histogram.getFrequencies();
+    }
+
+    /**
+     * Counts the characters of a stream
+     * @param in the stream
+     * @return the frequency of each character
+     */
+    public static long[] count(InputStream in) throws IOException {
+        HuffmanHistogram histogram = new HuffmanHistogram();
+        byte[] block = new byte[1 << 16];
+        int read;
+        while((read = in.read(block)) != -1) {
+            histogram.add(block, 0, read);
+        }
+        return histogram.getFrequencies();
+    }
+
+    /**
+     * Counts the characters of a file, splitting it between threads
+     * @param fileName the name of the file
+     * @param threads the number of threads
+     * @return the frequency of each character
+     */
+    public static long[] count(String fileName, int threads) throws IOException {
+        try(FileChannel input = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return count(input, threads, false);
+        }
+    }
+
+    /**
+     * Counts the characters of a file straight from memory mapped windows,
+     * splitting it between threads, so nothing is copied out of the file
+     * @param input the file
+     * @param threads the number of threads
+     * @return the frequency of each character
+     */
+    public static long[] countMapped(FileChannel input, int threads) throws IOException {
+        return count(input, threads, true);
+    }
+
+    /**
+     * Counts the characters of a file, splitting it between threads
+     * @param input the file
+     * @param threads the number of threads
+     * @param mapped true to count from memory mapped windows, false to read
+     *        the file a chunk at a time
+     * @return the frequency of each character
+     */
+    private static long[] count(FileChannel input, int threads, boolean mapped) throws IOException {
+        long size = input.size();
+        long parts = Math.max(1, Math.min(threads, (size + CHUNK - 1) / CHUNK));
+        long partSize = (size + parts - 1) / parts;
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for(long start = 0; start < size; start += partSize) {
+            long from = start;
+            long to = Math.min(size, start + partSize);
+            tasks.add(() -> mapped ? countMappedRange(input, from, to) : countRange(input, from, to));
+        }
+
+        long[] frequencies = new long[HuffmanTree.ALPHABET];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for(Future<long[]> task : pool.invokeAll(tasks)) {
+                long[] part = HuffmanEncode.await(task);
+                for(int c = 0; c < frequencies.length; c++) {
+                    frequencies[c] += part[c];
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return frequencies;
+    }
+
+    /**
+     * Counts the characters of part of a file
+     * @param input the file
+     * @param from the position of the first character
+     * @param to the end of the part
+     * @return the frequency of each character in the part
+     */
+    private static long[] countRange(FileChannel input, long from, long to) throws IOException {
+        HuffmanHistogram histogram = new HuffmanHistogram();
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(CHUNK, to - from));
+        for(long position = from; position < to; position += chunk.limit()) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), to - position));
+            HuffmanBlockIndex.readFully(input, chunk, position);
+            histogram.add(chunk.array(), 0, chunk.limit());
+        }
+        return histogram.getFrequencies();
+    }
+
+    /**
+     * Counts the characters of part of a file through memory mapped windows
+     * @param input the file
+     * @param from the position of the first character
+     * @param to the end of the part
+     * @return the frequency of each character in the part
+     */
+    private static long[] countMappedRange(FileChannel input, long from, long to) throws IOException {
+        HuffmanHistogram histogram = new HuffmanHistogram();
+        for(long position = from; position < to; position += MappedInputStream.WINDOW) {
+            histogram.add(input.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MappedInputStream.WINDOW, to - position)));
+        }
+        return histogram.getFrequencies();
+    }
+}
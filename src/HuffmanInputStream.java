@@ -3,81 +3,282 @@
  */
 import java.io.*;
 
-public class HuffmanInputStream {
-    private String tree;
-    private int totalChars;
+public class HuffmanInputStream implements Closeable {
+    private HuffmanCode code;
+    private long totalChars;
     private DataInputStream d;
-    private int[] bits;
-    private int count;
+    private byte[] buffer;      //raw bytes read from the file but not yet unpacked
+    private int position;
+    private int limit;
+    private long bitBuffer;     //unread bits, right aligned
+    private int bitCount;       //the number of unread bits in bitBuffer
+    private boolean endOfFile;
+    private long loaded;        //the number of bytes moved into bitBuffer
+    private long padding;       //the number of bits read past the end of the file
+    private IOException failure;    //the first error reading the file, no more is read after it
 
     /**
      * The constructor method of the HuffmanInputStream that reads from
-     * the file "fileName." Gets the String representation of the
-     * HuffmanTree and the total number of characters from file.
+     * the file "fileName." Gets the HuffmanCode and the total number of
+     * characters from file.
      * @param fileName the input binary file
+     * @throws IOException if the file cannot be read or its header is
+     *         truncated or corrupt
      */
-    public HuffmanInputStream(String fileName) {
+    public HuffmanInputStream(String fileName) throws IOException {
+        this(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
         try {
-            d = new DataInputStream(new FileInputStream(fileName));
-            tree = d.readUTF();
-            totalChars = d.readInt();
-            count = 8;
-            bits = new int[8];
-        } catch (IOException e) {
-            System.out.println("Input error");
+            readHeader();
+        } catch(IOException e) {
+            d.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A constructor for a HuffmanInputStream that reads only encoded bits,
+     * the code and character count are read by the caller.
+     * @param in the stream the bits are read from
+     */
+    public HuffmanInputStream(InputStream in) {
+        d = new DataInputStream(in);
+        buffer = new byte[1 << 16];
+        position = 0;
+        limit = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        endOfFile = false;
+        loaded = 0;
+        padding = 0;
+        failure = null;
+    }
+
+    /**
+     * Reads the header of a file with the SINGLE layout, the character count
+     * and the code, from the stream the bits are read from
+     * @throws IOException if the header is truncated or corrupt
+     * PRE: the stream is positioned at the start of the file and no bits
+     *      have been read
+     */
+    void readHeader() throws IOException {
+        try {
+            HuffmanFormat.expect(d, HuffmanFormat.SINGLE);
+            totalChars = d.readLong();
+            code = HuffmanCode.read(d);
+        } catch(EOFException e) {
+            throw new EOFException("the file ends inside its header");
         }
+        if(totalChars < 0) {
+            throw new IOException("corrupt character count");
+        }
+    }
+
+    /**
+     * A constructor for a HuffmanInputStream that reads encoded bits straight
+     * from an array instead of a stream.
+     * @param data the array
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes that may be read
+     */
+    public HuffmanInputStream(byte[] data, int offset, int length) {
+        reset(data, offset, length);
+    }
+
+    /**
+     * Starts reading from another array, so the stream can be reused
+     * @param data the array
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes that may be read
+     */
+    public void reset(byte[] data, int offset, int length) {
+        d = null;
+        buffer = data;
+        position = offset;
+        limit = offset + length;
+        bitBuffer = 0;
+        bitCount = 0;
+        endOfFile = true;
+        loaded = 0;
+        padding = 0;
+        failure = null;
     }
 
     /**
-     * Gets and returns the next bit in the file.
+     * Gets and returns the next bit in the file. A bit past the end of the
+     * file is read as 0 and counted by pastEnd().
      * @return either 0 or 1
      */
     public int readBit() {
-        int b;
-        int bit = 0;
+        if(bitCount == 0) {
+            fill(1);
+            if(bitCount == 0) {
+                padding++;
+                return 0;
+            }
+        }
+        bitCount--;
+        return (int) (bitBuffer >>> bitCount) & 1;
+    }
+
+    /**
+     * Gets and returns the next n bits in the file.
+     * @param n the number of bits
+     * @return the bits, the first bit in the most significant position
+     * PRE: 0 < n <= 32
+     */
+    public int readBits(int n) {
+        int bits = peekBits(n);
+        skipBits(n);
+        return bits;
+    }
+
+    /**
+     * Looks at the next n bits in the file without consuming them. Bits past
+     * the end of the file are read as 0 so a decoder may look ahead of the
+     * last code.
+     * @param n the number of bits to look at
+     * @return the next n bits, the first bit in the most significant position
+     * PRE: 0 < n <= 32
+     */
+    public int peekBits(int n) {
+        if(bitCount < n) {
+            fill(n);
+            if(bitCount < n) {
+                //pad with zeros at the end of the file
+                return (int) (bitBuffer << (n - bitCount)) & (int) ((1L << n) - 1);
+            }
+        }
+        return (int) (bitBuffer >>> (bitCount - n)) & (int) ((1L << n) - 1);
+    }
+
+    /**
+     * Consumes n bits that were looked at with peekBits
+     * @param n the number of bits to consume
+     * PRE: n <= the n of the last call to peekBits
+     */
+    public void skipBits(int n) {
+        bitCount -= n;
+        if(bitCount < 0) {
+            //the bits past the end of the file were zeros
+            padding -= bitCount;
+            bitCount = 0;
+        }
+    }
+
+    /**
+     * Skips the rest of a partly read byte
+     */
+    public void alignToByte() {
+        skipBits(bitCount % 8);
+    }
+
+    /**
+     * @return the number of bits read or skipped so far, including any read
+     *         past the end of the file
+     */
+    public long getBitsRead() {
+        return loaded * 8 - bitCount + padding;
+    }
+
+    /**
+     * Checks if more bits were read than the file has, which means the file
+     * was cut short
+     * @return true if a bit past the end of the file was read
+     * @throws IOException if reading the file failed, in which case the bits
+     *         after the failure were read as 0
+     */
+    public boolean pastEnd() throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+        return padding > 0;
+    }
+
+    /**
+     * Checks if every bit has been read
+     * @return true if there are no bits left before the end of the file
+     * @throws IOException if reading the file failed
+     */
+    public boolean atEnd() throws IOException {
+        if(bitCount == 0) {
+            fill(1);
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        return bitCount == 0;
+    }
+
+    /**
+     * @return the number of bytes that can be read without waiting for the
+     *         file, not counting the bits already unpacked
+     */
+    public int available() {
+        if(position < limit || d == null || endOfFile || failure != null) {
+            return limit - position;
+        }
         try {
-            //unpacks the byte
-            if(count == 8) {
-                b = d.readUnsignedByte();
-                for(int i = 7; i >= 0; i--) {
-                    bits[i] = b % 2;
-                    b = b / 2;
+            return d.available();
+        } catch(IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Tops up the bit buffer from the byte buffer, refilling the byte buffer
+     * from the file when it runs out. The file is only read when fewer than
+     * the needed bits are unpacked, so a live stream is not waited on for
+     * bits that are not needed yet. An error reading the file is kept for
+     * atEnd() and pastEnd() to throw, and the bits after it are read as 0.
+     * @param needed the number of bits the caller needs
+     */
+    private void fill(int needed) {
+        try {
+            while(bitCount <= 56) {
+                if(position == limit) {
+                    if(endOfFile || failure != null || bitCount >= needed) {
+                        return;
+                    }
+                    limit = d.read(buffer);
+                    position = 0;
+                    if(limit <= 0) {
+                        limit = 0;
+                        endOfFile = true;
+                        return;
+                    }
                 }
-                count = 0;
+                bitBuffer = (bitBuffer << 8) | (buffer[position++] & 0xFF);
+                bitCount += 8;
+                loaded++;
             }
-            bit = bits[count];
-            count++;
         } catch(IOException e) {
-            System.out.println("reading bit error");
+            failure = e;
         }
-        return bit;
     }
 
     /**
-     * Gets the String representation of the tree.
-     * @return the String representation of the HuffmanTree
+     * Gets the code rebuilt from the code lengths in the file.
+     * @return the HuffmanCode
      */
-    public String getTree() {
-        return tree;
+    public HuffmanCode getCode() {
+        return code;
     }
 
     /**
      * gets the total character count
      * @return the total character count in the file
      */
-    public int getTotalChars() {
+    public long getTotalChars() {
         return totalChars;
     }
 
     /**
      * closes the stream
      */
-    public void close() {
+    public void close() throws IOException {
         //close the DataInputStream
-        try {
+        if(d != null) {
             d.close();
-        } catch(IOException e) {
-            System.out.println("Input close error");
         }
     }
 }
@@ -0,0 +1,55 @@
+/*
+* Reports what limiting the length of the codes costs for a file: the size of
+* the encoded bits with each limit compared to the code of the unbounded
+* HuffmanTree.
+ */
+import java.io.*;
+
+public class HuffmanLengthReport {
+
+    /**
+     * @param frequencies the frequency of each character
+     * @param code the code
+     * @return the number of bits needed to encode the characters with the code
+     */
+    private static long encodedBits(long[] frequencies, HuffmanCode code) {
+        long bits = 0;
+        int[] lengths = code.getLengths();
+        for(int c = 0; c < frequencies.length; c++) {
+            bits += frequencies[c] * lengths[c];
+        }
+        return bits;
+    }
+
+    /**
+     * Prints the report
+     * @param args
+     *   args[0] is the name of the file
+     *   args[1..] are the limits to report on (default 8 10 12 15 16 20 24)
+     */
+    public static void main(String[] args) throws IOException {
+        long[] frequencies = HuffmanHistogram.count(args[0], Runtime.getRuntime().availableProcessors());
+        int[] limits = {8, 10, 12, 15, 16, 20, 24};
+        if(args.length > 1) {
+            limits = new int[args.length - 1];
+            for(int i = 1; i < args.length; i++) {
+                limits[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        HuffmanCode unbounded = HuffmanEncode.createCode(frequencies, 0);
+        long unboundedBits = encodedBits(frequencies, unbounded);
+        System.out.printf("%-10s %8s %14s %10s%n", "limit", "longest", "bytes", "cost");
+        System.out.printf("%-10s %8d %14d %10s%n", "none", unbounded.getMaxLength(), (unboundedBits + 7) / 8, "");
+        for(int limit : limits) {
+            try {
+                HuffmanCode limited = HuffmanEncode.createCode(frequencies, limit);
+                long bits = encodedBits(frequencies, limited);
+                double cost = unboundedBits == 0 ? 0 : 100.0 * (bits - unboundedBits) / unboundedBits;
+                System.out.printf("%-10d %8d %14d %9.3f%%%n", limit, limited.getMaxLength(), (bits + 7) / 8, cost);
+            } catch(IllegalArgumentException e) {
+                System.out.printf("%-10d %s%n", limit, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+* Finds the code lengths of a Huffman code into arrays it keeps, so an
+* encoder can build a code for every block without allocating. The lengths
+* are the depths of the leaves of the tree HuffmanEncode.createHuffmanTree
+* makes with the two queue method, but no HuffmanTree is made: each merged
+* node only records its parent, and the depths are found from the root down
+* in the same array. Codes longer than the limit are replaced with the ones
+* found by a PackageMerge that keeps its levels too.
+ */
+import java.util.*;
+
+public class HuffmanLengths {
+    private int maxLength;
+    private long[] leaves;          //the characters sorted by frequency, the character in the low bits
+    private long[] weights;         //the queue of merged nodes
+    private int[] parent;           //the parent of each leaf and merged node, then its depth
+    private int[] lengths;
+    private PackageMerge limited;   //null when there is no limit
+
+    /**
+     * Makes the arrays for finding code lengths
+     * @param alphabet the number of different characters
+     * @param maxLength the longest code allowed, 0 for no limit
+     * @throws IllegalArgumentException if maxLength is not a valid limit
+     */
+    public HuffmanLengths(int alphabet, int maxLength) {
+        HuffmanEncode.checkLimit(maxLength);
+        this.maxLength = maxLength;
+        leaves = new long[alphabet];
+        weights = new long[alphabet];
+        parent = new int[2 * alphabet];
+        lengths = new int[alphabet];
+        if(maxLength > 0) {
+            limited = new PackageMerge(alphabet, maxLength);
+        }
+    }
+
+    /**
+     * Finds the code lengths for a set of frequencies. A single character
+     * gets a code of length 1 so it still takes at least one bit.
+     * @param frequencies the frequency of each character, for as many
+     *        characters as the arrays were made for
+     * @return the length of each character's code, 0 for characters with a
+     *         frequency of 0, which is overwritten by the next call
+     * PRE: every frequency fits in 63 bits less the bits of a character
+     */
+    public int[] build(long[] frequencies) {
+        Arrays.fill(lengths, 0);
+
+        //sort the characters by frequency, the character is kept in the low bits
+        int shift = 32 - Integer.numberOfLeadingZeros(frequencies.length - 1);
+        int count = 0;
+        for(int i = 0; i < frequencies.length; i++) {
+            if(frequencies[i] > 0) {
+                leaves[count++] = (frequencies[i] << shift) | i;
+            }
+        }
+        long mask = (1L << shift) - 1;
+        if(count <= 1) {
+            if(count == 1) {
+                lengths[(int) (leaves[0] & mask)] = 1;
+            }
+            return lengths;
+        }
+        Arrays.sort(leaves, 0, count);
+
+        //leaves are nodes 0 to count - 1, merged nodes follow them in the order they are made
+        int head = 0;
+        int tail = 0;
+        int next = 0;                       //the next character in leaves
+        for(int i = 0; i < count - 1; i++) {
+            long weight = 0;
+            for(int j = 0; j < 2; j++) {
+                //take a character on a tie so the tree is as shallow as possible
+                if(next < count && (head == tail || (leaves[next] >>> shift) <= weights[head])) {
+                    parent[next] = count + tail;
+                    weight += leaves[next++] >>> shift;
+                } else {
+                    parent[count + head] = count + tail;
+                    weight += weights[head++];
+                }
+            }
+            weights[tail++] = weight;
+        }
+
+        //a parent is always made after its children, so going down from the root finds each depth
+        int root = count + tail - 1;
+        parent[root] = 0;
+        int longest = 0;
+        for(int node = root - 1; node >= 0; node--) {
+            parent[node] = parent[parent[node]] + 1;
+        }
+        for(int i = 0; i < count; i++) {
+            lengths[(int) (leaves[i] & mask)] = parent[i];
+            longest = Math.max(longest, parent[i]);
+        }
+        if(limited != null && longest > maxLength) {
+            limited.codeLengths(frequencies, lengths);
+        }
+        return lengths;
+    }
+}
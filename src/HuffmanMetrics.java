@@ -0,0 +1,58 @@
+/*
+* What the encoders and decoders report about their work: how long each
+* stage takes, how many bytes go in and out, and how close the codes come to
+* the entropy of the characters. Every method does nothing by default, and
+* NONE, the metrics used until HuffmanStats.install() is called, keeps the
+* defaults. The calls are made once per file or per block, never per
+* character, and with NONE a stage is not even timed.
+ */
+public interface HuffmanMetrics {
+    HuffmanMetrics NONE = new HuffmanMetrics() {};
+
+    //the stages that are timed
+    int COUNT = 0;      //counting the characters
+    int TREE = 1;       //building the tree and the code
+    int ENCODE = 2;     //writing the codes
+    int DECODE = 3;     //reading the codes and checking the checksums
+    String[] STAGES = {"count", "tree", "encode", "decode"};
+
+    /**
+     * Starts timing a stage
+     * @return the time the stage started, passed to stop()
+     */
+    default long start() {
+        return 0;
+    }
+
+    /**
+     * Finishes timing a stage
+     * @param stage COUNT, TREE, ENCODE or DECODE
+     * @param start the time returned by start()
+     */
+    default void stop(int stage, long start) {
+    }
+
+    /**
+     * Records a file or block that was encoded
+     * @param characters the number of characters
+     * @param bytes the number of bytes they were encoded into
+     */
+    default void encoded(long characters, long bytes) {
+    }
+
+    /**
+     * Records a file or block that was decoded
+     * @param bytes the number of encoded bytes
+     * @param characters the number of characters they decoded to
+     */
+    default void decoded(long bytes, long characters) {
+    }
+
+    /**
+     * Records the code used for a file or block
+     * @param frequencies the frequency of each character
+     * @param lengths the length of the code of each character
+     */
+    default void code(long[] frequencies, int[] lengths) {
+    }
+}
@@ -2,62 +2,219 @@
 * An output stream that writes the encoded HuffmanTree to a binary file.
  */
 import java.io.*;
+import java.nio.*;
 
 public class HuffmanOutputStream {
     private DataOutputStream d;
-    private int b;
-    private int count;
+    private long bits;          //bits that have not been written yet, right aligned
+    private int count;          //the number of bits in "bits"
+    private byte[] buffer;      //full bytes waiting to be written to the file
+    private int position;
+    private int end;            //the end of the space in buffer
+    private long total;         //the number of bits written
+    private IOException failure;    //the first write that failed, thrown by flush() and close()
 
     /**
      * The Constructor for the HuffmanOutputStream to write to the binary file.
      * @param fileName the file name
-     * @param tree the String representation of the HuffmanTree
+     * @param code the canonical code built from the HuffmanTree
      * @param totalChars total number of chars
+     * @throws IOException if the file cannot be created or the header written
      */
-    public HuffmanOutputStream(String fileName, String tree, int totalChars) {
+    public HuffmanOutputStream(String fileName, HuffmanCode code, long totalChars) throws IOException {
+        //Create a DataOutputSteam and write the header, the total number
+        //of characters and the code lengths to the file "fileName"
+        this(new FileOutputStream(fileName));
         try {
-            //Create a DataOutputSteam and write the tree's String representation and
-            //total number of character to the file "fileName"
-            d = new DataOutputStream(new FileOutputStream(fileName));
-            d.writeUTF(tree);
-            d.writeInt(totalChars);
-            b = 0;
-            count = 0;
-        } catch (IOException e) {
-            System.out.println("Output error");
+            HuffmanFormat.write(d, HuffmanFormat.SINGLE);
+            d.writeLong(totalChars);
+            code.write(d);
+        } catch(IOException e) {
+            d.close();
+            throw e;
         }
     }
 
+    /**
+     * A Constructor for a HuffmanOutputStream that writes only encoded bits,
+     * the code and character count are written by the caller.
+     * @param out the stream the bits are written to
+     */
+    public HuffmanOutputStream(OutputStream out) {
+        d = new DataOutputStream(out);
+        bits = 0;
+        count = 0;
+        buffer = new byte[1 << 16];
+        position = 0;
+        end = buffer.length;
+        total = 0;
+    }
+
+    /**
+     * A Constructor for a HuffmanOutputStream that writes the bits straight
+     * into an array instead of a stream.
+     * @param dst the array
+     * @param offset the position of the first byte to write
+     * @param end the end of the space that may be written
+     */
+    public HuffmanOutputStream(byte[] dst, int offset, int end) {
+        reset(dst, offset, end);
+    }
+
+    /**
+     * Starts writing into another array, so the stream can be reused
+     * @param dst the array
+     * @param offset the position of the first byte to write
+     * @param end the end of the space that may be written
+     */
+    public void reset(byte[] dst, int offset, int end) {
+        d = null;
+        bits = 0;
+        count = 0;
+        buffer = dst;
+        position = offset;
+        this.end = end;
+        total = 0;
+    }
+
     /**
      * Writes the bit to the binary file
      * @param bit the character being converted to binary
      * PRE: bit == '0' || bit == '1'
      */
     public void writeBit(char bit) {
-        try {
-            b = b * 2 + (bit - '0');
-            count++;
-            if(count == 8) {
-                d.writeByte(b);
-                b = 0;
-                count = 0;
+        writeBits(bit - '0', 1);
+    }
+
+    /**
+     * Writes a whole code to the binary file
+     * @param code the code, the first bit in the most significant position
+     * @param length the number of bits in the code
+     * PRE: 0 <= length <= 64 and code has no bits set above length
+     */
+    public void writeBits(long code, int length) {
+        if(length > 32) {
+            //write the high part first so at most 32 bits are added at a time
+            writeBits(code >>> 32, length - 32);
+            code &= 0xFFFFFFFFL;
+            length = 32;
+        }
+        bits = (bits << length) | code;
+        count += length;
+        total += length;
+        if(count >= 32) {
+            //move a full word into the buffer
+            count -= 32;
+            int word = (int) (bits >>> count);
+            if(position + 4 > end) {
+                flushBuffer();
             }
-        } catch(IOException e) {
+            buffer[position] = (byte) (word >>> 24);
+            buffer[position + 1] = (byte) (word >>> 16);
+            buffer[position + 2] = (byte) (word >>> 8);
+            buffer[position + 3] = (byte) word;
+            position += 4;
         }
     }
 
     /**
-     * Writes the final byte if needed and closes the OutputStream
+     * @return the number of bits written, not counting the padding
      */
-    public void close() {
-        try {
-            if(count != 0) {
-                b = b << (8 - count);
-                d.writeByte(b);
+    public long getBitCount() {
+        return total;
+    }
+
+    /**
+     * Pads the bits written so far with zeros to a whole byte
+     */
+    public void alignToByte() {
+        int padding = (8 - count % 8) % 8;
+        writeBits(0, padding);
+        total -= padding;
+    }
+
+    /**
+     * Moves the remaining bits into the buffer, padded to a whole byte
+     */
+    private void drainBits() {
+        alignToByte();
+        while(count > 0) {
+            if(position == end) {
+                flushBuffer();
+            }
+            count -= 8;
+            buffer[position++] = (byte) (bits >>> count);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the file. writeBits() does not throw, so
+     * a failed write is kept and thrown by the next flush() or by close(),
+     * and nothing more is written after it.
+     */
+    private void flushBuffer() {
+        if(d == null) {
+            throw new BufferOverflowException();
+        }
+        if(failure == null) {
+            try {
+                d.write(buffer, 0, position);
+            } catch(IOException e) {
+                failure = e;
+            }
+        }
+        position = 0;
+    }
+
+    /**
+     * Writes every whole byte written so far to the stream and flushes it, so
+     * a reader can decode everything but the last partial byte. The stream
+     * stays open and later bits continue the partial byte.
+     * @throws IOException if this or an earlier write failed
+     * PRE: the stream was not made for an array
+     */
+    public void flush() throws IOException {
+        while(count >= 8) {
+            if(position == end) {
+                flushBuffer();
             }
+            count -= 8;
+            buffer[position++] = (byte) (bits >>> count);
+        }
+        flushBuffer();
+        if(failure != null) {
+            throw failure;
+        }
+        d.flush();
+    }
+
+    /**
+     * Finishes writing into an array
+     * @return the position after the last byte written
+     */
+    public int finish() {
+        drainBits();
+        return position;
+    }
+
+    /**
+     * Writes the final bytes if needed and closes the OutputStream
+     * @throws IOException if any write, or closing the stream, failed, so
+     *         the file is not whole
+     */
+    public void close() throws IOException {
+        //the remaining bits are padded with zeros to a whole byte
+        drainBits();
+        flushBuffer();
+        try {
             d.close();
-        } catch (IOException e) {
-            System.out.println("Output close error");
+        } catch(IOException e) {
+            if(failure == null) {
+                failure = e;
+            }
+        }
+        if(failure != null) {
+            throw failure;
         }
     }
 }
@@ -0,0 +1,179 @@
+/*
+* Reads any part of a file of blocks, written by HuffmanEncode -stream or
+* HuffmanEncoder, without decoding everything before it. The block index gives
+* the position of the first character of every block, so a read decodes only
+* the blocks it covers. The blocks decoded last are kept in a cache, so going
+* back over nearby parts of the file, as a viewer scrolling through it does,
+* does not decode them again.
+*
+* The start of each block is the only place decoding can begin, so the block
+* size chosen when encoding (-block) is the most that has to be decoded to
+* reach any character.
+ */
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HuffmanRandomAccess implements Closeable {
+    static final int DEFAULT_CACHE = 16;        //the number of decoded blocks kept
+
+    private FileChannel input;
+    private HuffmanBlockIndex index;
+    private HuffmanDecoder decoder;
+    private LinkedHashMap<Integer, byte[]> cache;
+
+    /**
+     * Opens a file of blocks with a cache of DEFAULT_CACHE blocks
+     * @param fileName the name of the file
+     */
+    public HuffmanRandomAccess(String fileName) throws IOException {
+        this(fileName, DEFAULT_CACHE);
+    }
+
+    /**
+     * Opens a file of blocks
+     * @param fileName the name of the file
+     * @param cacheBlocks the number of decoded blocks kept, the ones used
+     *        least recently are dropped first
+     */
+    public HuffmanRandomAccess(String fileName, int cacheBlocks) throws IOException {
+        input = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            HuffmanDecode.readBlocksHeader(input);
+            index = HuffmanBlockIndex.read(input);
+        } catch(IOException e) {
+            input.close();
+            throw e;
+        }
+        decoder = new HuffmanDecoder();
+        cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    /**
+     * @return the number of characters in the decoded file
+     */
+    public long length() {
+        return index.getTotalLength();
+    }
+
+    /**
+     * Reads the characters starting at a position into an array
+     * @param offset the position in the decoded file of the first character
+     * @param dst where the characters are written, filled unless the file
+     *        ends first
+     * @return the number of characters read, or -1 if offset is at or past
+     *         the end of the file
+     */
+    public int read(long offset, byte[] dst) throws IOException {
+        return read(offset, dst, 0, dst.length);
+    }
+
+    /**
+     * Reads the characters starting at a position into part of an array
+     * @param offset the position in the decoded file of the first character
+     * @param dst where the characters are written
+     * @param dstOffset the position in dst of the first character
+     * @param length the number of characters to read
+     * @return the number of characters read, which is less than length only
+     *         if the file ends first, or -1 if offset is at or past the end of
+     *         the file
+     */
+    public synchronized int read(long offset, byte[] dst, int dstOffset, int length) throws IOException {
+        if(offset < 0 || dstOffset < 0 || length < 0 || length > dst.length - dstOffset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if(length == 0) {
+            return 0;
+        }
+        if(offset >= length()) {
+            return -1;
+        }
+        int done = 0;
+        for(int i = index.find(offset); done < length && i < index.size(); i++) {
+            byte[] block = block(i);
+            int from = (int) (offset + done - index.getStart(i));
+            int count = Math.min(length - done, block.length - from);
+            System.arraycopy(block, from, dst, dstOffset + done, count);
+            done += count;
+        }
+        return done;
+    }
+
+    /**
+     * Gets a decoded block from the cache, decoding it if it is not there
+     * @param i the block
+     * @return the characters of the block
+     */
+    private byte[] block(int i) throws IOException {
+        byte[] block = cache.get(i);
+        if(block == null) {
+            block = HuffmanDecode.readBlock(decoder, input, index, i);
+            cache.put(i, block);
+        }
+        return block;
+    }
+
+    /**
+     * Closes the file and empties the cache
+     */
+    public synchronized void close() throws IOException {
+        cache.clear();
+        input.close();
+    }
+
+    /**
+     * Writes part of a file of blocks to standard output
+     * @param args
+     *   args[0] is the name of the file of blocks
+     *   args[1] is the position of the first character
+     *   args[2] is the number of characters
+     *   errors are printed to standard error, which leaves standard output
+     *   for the characters, and the exit status is then 1
+     */
+    public static void main(String[] args) {
+        long offset = -1;
+        long rest = -1;
+        if(args.length == 3) {
+            try {
+                offset = Long.parseLong(args[1]);
+                rest = Long.parseLong(args[2]);
+            } catch(NumberFormatException e) {
+                //reported as a usage error below
+            }
+        }
+        if(offset < 0 || rest < 0) {
+            System.err.println("usage: HuffmanRandomAccess file position count, with a position and count of at least 0");
+            System.exit(1);
+        }
+        boolean failed = false;
+        try(HuffmanRandomAccess file = new HuffmanRandomAccess(args[0])) {
+            if(offset > file.length()) {
+                throw new IOException("the position " + offset + " is past the end of the file, which has "
+                        + file.length() + " characters");
+            }
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while(rest > 0 && (read = file.read(offset, buffer, 0, (int) Math.min(buffer.length, rest))) > 0) {
+                System.out.write(buffer, 0, read);
+                offset += read;
+                rest -= read;
+            }
+            System.out.flush();
+            //System.out keeps its errors to itself
+            if(System.out.checkError()) {
+                throw new IOException("cannot write to standard output");
+            }
+        } catch(IOException e) {
+            System.err.println(e);
+            failed = true;
+        }
+        if(failed) {
+            System.exit(1);
+        }
+    }
+}
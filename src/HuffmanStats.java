@@ -0,0 +1,271 @@
+/*
+* Metrics that are kept: counters of characters and bytes, the time spent in
+* each stage with a histogram of how long it took, a histogram of how well
+* each file or block compressed, and the entropy of the characters against
+* the bits their codes used. The counters are LongAdders, so threads encoding
+* blocks in parallel do not wait on each other to count.
+*
+* install() makes these the metrics every encoder and decoder in the process
+* reports to and registers them with the platform MBean server, so they can
+* be watched through JMX.
+ */
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+public class HuffmanStats implements HuffmanMetrics, HuffmanStatsMXBean {
+    static final String NAME = "Huffman:type=HuffmanStats";
+    private static final int TIME_BUCKETS = 40;     //powers of two of microseconds
+    private static final int RATIO_BUCKETS = 11;    //tenths of the original size, and no smaller
+
+    private static volatile HuffmanMetrics metrics = NONE;
+
+    private final LongAdder encodedCharacters = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    private final LongAdder decodedCharacters = new LongAdder();
+    private final LongAdder symbols = new LongAdder();      //the characters counted for the code
+    private final LongAdder codedBits = new LongAdder();
+    private final DoubleAdder entropyBits = new DoubleAdder();
+    private final LongAdder[] stageCounts = new LongAdder[STAGES.length];
+    private final LongAdder[] stageNanos = new LongAdder[STAGES.length];
+    private final LongAccumulator[] stageMax = new LongAccumulator[STAGES.length];
+    private final AtomicLongArray[] stageTimes = new AtomicLongArray[STAGES.length];
+    private final AtomicLongArray ratios = new AtomicLongArray(RATIO_BUCKETS);
+
+    /**
+     * Empty metrics, which are only reported to once installed
+     */
+    public HuffmanStats() {
+        for(int s = 0; s < STAGES.length; s++) {
+            stageCounts[s] = new LongAdder();
+            stageNanos[s] = new LongAdder();
+            stageMax[s] = new LongAccumulator(Math::max, 0);
+            stageTimes[s] = new AtomicLongArray(TIME_BUCKETS);
+        }
+    }
+
+    /**
+     * @return the metrics every encoder and decoder reports to, NONE unless
+     *         install() was called
+     */
+    public static HuffmanMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts keeping metrics for the whole process and makes them visible
+     * through JMX. Calling it again returns the metrics already installed.
+     * @return the metrics
+     */
+    public static synchronized HuffmanStats install() {
+        if(metrics instanceof HuffmanStats) {
+            return (HuffmanStats) metrics;
+        }
+        HuffmanStats stats = new HuffmanStats();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(NAME));
+        } catch(JMException e) {
+            //the metrics are still kept, they are just not visible through JMX
+            System.err.println("HuffmanStats not registered: " + e);
+        }
+        metrics = stats;
+        return stats;
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(int stage, long start) {
+        long nanos = System.nanoTime() - start;
+        stageCounts[stage].increment();
+        stageNanos[stage].add(nanos);
+        stageMax[stage].accumulate(nanos);
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+        stageTimes[stage].incrementAndGet(Math.min(bucket, TIME_BUCKETS - 1));
+    }
+
+    public void encoded(long characters, long bytes) {
+        encodedCharacters.add(characters);
+        encodedBytes.add(bytes);
+        if(characters > 0) {
+            ratios.incrementAndGet((int) Math.min(RATIO_BUCKETS - 1, bytes * 10 / characters));
+        }
+    }
+
+    public void decoded(long bytes, long characters) {
+        decodedBytes.add(bytes);
+        decodedCharacters.add(characters);
+    }
+
+    public void code(long[] frequencies, int[] lengths) {
+        long total = 0;
+        long bits = 0;
+        for(int c = 0; c < frequencies.length; c++) {
+            total += frequencies[c];
+            bits += frequencies[c] * lengths[c];
+        }
+        //each character needs at least log2(total / frequency) bits
+        double entropy = 0;
+        for(long frequency : frequencies) {
+            if(frequency > 0) {
+                entropy += frequency * (Math.log((double) total / frequency) / Math.log(2));
+            }
+        }
+        symbols.add(total);
+        codedBits.add(bits);
+        entropyBits.add(entropy);
+    }
+
+    public long getEncodedCharacters() {
+        return encodedCharacters.sum();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+
+    public long getDecodedCharacters() {
+        return decodedCharacters.sum();
+    }
+
+    public double getCompressionRatio() {
+        long characters = encodedCharacters.sum();
+        return characters == 0 ? 0 : (double) encodedBytes.sum() / characters;
+    }
+
+    public double getEntropyBitsPerSymbol() {
+        long total = symbols.sum();
+        return total == 0 ? 0 : entropyBits.sum() / total;
+    }
+
+    public double getBitsPerSymbol() {
+        long total = symbols.sum();
+        return total == 0 ? 0 : (double) codedBits.sum() / total;
+    }
+
+    public double getEncodeThroughput() {
+        long nanos = stageNanos[COUNT].sum() + stageNanos[TREE].sum() + stageNanos[ENCODE].sum();
+        return megabytesPerSecond(encodedCharacters.sum(), nanos);
+    }
+
+    public double getDecodeThroughput() {
+        return megabytesPerSecond(decodedCharacters.sum(), stageNanos[DECODE].sum());
+    }
+
+    /**
+     * @param bytes a number of bytes
+     * @param nanos the time they took
+     * @return the bytes per second in MB
+     */
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos / (1 << 20);
+    }
+
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(int s = 0; s < STAGES.length; s++) {
+            counts.put(STAGES[s], stageCounts[s].sum());
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getStageNanos() {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for(int s = 0; s < STAGES.length; s++) {
+            nanos.put(STAGES[s], stageNanos[s].sum());
+        }
+        return nanos;
+    }
+
+    public Map<String, Long> getStageMaxNanos() {
+        Map<String, Long> max = new LinkedHashMap<>();
+        for(int s = 0; s < STAGES.length; s++) {
+            max.put(STAGES[s], stageMax[s].get());
+        }
+        return max;
+    }
+
+    public Map<String, long[]> getStageHistograms() {
+        Map<String, long[]> histograms = new LinkedHashMap<>();
+        for(int s = 0; s < STAGES.length; s++) {
+            histograms.put(STAGES[s], toArray(stageTimes[s]));
+        }
+        return histograms;
+    }
+
+    public long[] getRatioHistogram() {
+        return toArray(ratios);
+    }
+
+    /**
+     * @param counts an array of counts
+     * @return a copy of the counts
+     */
+    private static long[] toArray(AtomicLongArray counts) {
+        long[] copy = new long[counts.length()];
+        for(int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public void reset() {
+        encodedCharacters.reset();
+        encodedBytes.reset();
+        decodedBytes.reset();
+        decodedCharacters.reset();
+        symbols.reset();
+        codedBits.reset();
+        entropyBits.reset();
+        for(int s = 0; s < STAGES.length; s++) {
+            stageCounts[s].reset();
+            stageNanos[s].reset();
+            stageMax[s].reset();
+            for(int i = 0; i < TIME_BUCKETS; i++) {
+                stageTimes[s].set(i, 0);
+            }
+        }
+        for(int i = 0; i < RATIO_BUCKETS; i++) {
+            ratios.set(i, 0);
+        }
+    }
+
+    /**
+     * Writes a summary of the metrics, as printed by the -stats option
+     * @param out where the summary is written
+     * @param wallNanos the time the whole run took, 0 to leave out the
+     *        throughput it gives
+     */
+    public void report(PrintStream out, long wallNanos) {
+        if(getEncodedCharacters() > 0) {
+            out.printf("encoded   %d characters into %d bytes (ratio %.3f)%n",
+                    getEncodedCharacters(), getEncodedBytes(), getCompressionRatio());
+        }
+        if(symbols.sum() > 0) {
+            out.printf("code      %.4f bits per character, entropy %.4f%n",
+                    getBitsPerSymbol(), getEntropyBitsPerSymbol());
+        }
+        if(getDecodedCharacters() > 0) {
+            out.printf("decoded   %d bytes into %d characters%n", getDecodedBytes(), getDecodedCharacters());
+        }
+        for(int s = 0; s < STAGES.length; s++) {
+            long count = stageCounts[s].sum();
+            if(count > 0) {
+                out.printf("%-9s %d x, %.3f ms total, %.3f ms max%n", STAGES[s], count,
+                        stageNanos[s].sum() / 1e6, stageMax[s].get() / 1e6);
+            }
+        }
+        if(wallNanos > 0) {
+            long characters = Math.max(getEncodedCharacters(), getDecodedCharacters());
+            out.printf("total     %.3f ms, %.1f MB/s%n", wallNanos / 1e6, megabytesPerSecond(characters, wallNanos));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+* The view of HuffmanStats given through JMX, under the name
+* Huffman:type=HuffmanStats.
+ */
+import java.util.*;
+
+public interface HuffmanStatsMXBean {
+    /**
+     * @return the number of characters encoded
+     */
+    long getEncodedCharacters();
+
+    /**
+     * @return the number of bytes the characters were encoded into
+     */
+    long getEncodedBytes();
+
+    /**
+     * @return the number of encoded bytes decoded
+     */
+    long getDecodedBytes();
+
+    /**
+     * @return the number of characters decoded
+     */
+    long getDecodedCharacters();
+
+    /**
+     * @return the encoded bytes over the characters encoded
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return the entropy of the characters encoded, in bits per character
+     */
+    double getEntropyBitsPerSymbol();
+
+    /**
+     * @return the bits per character the codes actually used
+     */
+    double getBitsPerSymbol();
+
+    /**
+     * @return the characters encoded per second spent counting, building
+     *         codes and encoding, in MB
+     */
+    double getEncodeThroughput();
+
+    /**
+     * @return the characters decoded per second spent decoding, in MB
+     */
+    double getDecodeThroughput();
+
+    /**
+     * @return the number of times each stage ran
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * @return the total time spent in each stage, in nanoseconds
+     */
+    Map<String, Long> getStageNanos();
+
+    /**
+     * @return the longest time a stage took, in nanoseconds
+     */
+    Map<String, Long> getStageMaxNanos();
+
+    /**
+     * @return for each stage, how many times it took less than 1 microsecond,
+     *         1 to 2, 2 to 4 and so on
+     */
+    Map<String, long[]> getStageHistograms();
+
+    /**
+     * @return how many files or blocks were encoded into 0 to 10% of their
+     *         size, 10 to 20% and so on, with the last count for the ones that
+     *         did not get smaller
+     */
+    long[] getRatioHistogram();
+
+    /**
+     * Sets every count back to 0
+     */
+    void reset();
+}
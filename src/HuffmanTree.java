@@ -1,40 +1,46 @@
 /*
 * Defines the functionality of the Huffman Tree that is used for
-* encoding and decoding text files.
+* encoding and decoding files of bytes.
+*
+* The nodes are stored in flat arrays instead of as separate objects: a node
+* is an index, its children are in left[] and right[] and its character is in
+* data[]. A leaf has no children (left[] is -1). Building and walking the tree
+* touches only a few small arrays, so it stays in the cache and makes no
+* garbage for each node.
  */
 import java.util.*;
 
 public class HuffmanTree {
-    private Node root;
-    private Node current;   //the value is changed by the move methods
-
-    /**
-     * A basic node for a binary tree
-     */
-    private class Node {
-        private Node left;
-        private char data;
-        private Node right;
-
-        /**
-         * A basic constructor to set values of a Node
-         * @param L reference to the left child
-         * @param d the data it contains
-         * @param R reference to the right child
-         */
-        private Node(Node L, char d, Node R) {
-            left = L;
-            data = d;
-            right = R;
-        }
-    }
+    static final int ALPHABET = 256;                //the number of different characters
+    static final char NON_LEAF = (char) ALPHABET;   //the data in non-leaf nodes, not a character
+    private static final int NONE = -1;             //the child of a leaf
+
+    private int[] left;
+    private int[] right;
+    private char[] data;
+    private int size;       //the number of nodes
+    private int root;
+    private int current;    //the value is changed by the move methods
 
     /**
      * An empty tree constructor
      */
     public HuffmanTree() {
-        root = null;
-        current = null;
+        this(1);
+    }
+
+    /**
+     * An empty tree with room for a number of nodes, which are added with
+     * addLeaf() and addNode()
+     * @param capacity the number of nodes the tree is expected to have
+     */
+    public HuffmanTree(int capacity) {
+        left = new int[Math.max(capacity, 1)];
+        right = new int[left.length];
+        data = new char[left.length];
+        size = 0;
+        root = NONE;
+        current = NONE;
     }
 
     /**
@@ -42,47 +48,92 @@ public class HuffmanTree {
      * @param d the character in the single node
      */
     public HuffmanTree(char d) {
-        root = new Node(null, d, null);
+        this(1);
+        root = addLeaf(d);
         current = root;
     }
 
     /**
-     * Assumes t represents a post order representation of the tree as discussed
-     * in class. NonLeaf is the char value of the data in the non-leaf nodes
-     * in the following I will use (char) 128 for the non-leaf value
-     * @param t a post-order representation of a HuffmanTree
-     * @param nonLeaf the char for the non-leaf representation
-     */
-    public HuffmanTree(String t, char nonLeaf) {
-        char currentChar;
-        HuffmanTree left, right;
-        Stack<HuffmanTree> treeStack = new Stack<>();
-
-        //parse through string, character by character
-        for(int i = 0; i < t.length(); i++) {
-            currentChar = t.charAt(i);
-            if(currentChar == nonLeaf) {
-                //get left and right nodes when a connecting value(nonLeaf) is found, push on stack
-                right = treeStack.pop();
-                left = treeStack.pop();
-                treeStack.push(new HuffmanTree(left, currentChar, right));
-            } else {
-                //push any other character onto tree with null left/right references.
-                treeStack.push(new HuffmanTree(new HuffmanTree(), currentChar, new HuffmanTree()));
+     * Makes the tree that has the paths of a HuffmanCode, 0 for left and 1
+     * for right.
+     * @param code the code of each character
+     */
+    public HuffmanTree(HuffmanCode code) {
+        this(2 * Math.max(code.getCount(), 1));
+        long[] codes = code.getCodes();
+        int[] lengths = code.getLengths();
+        int top = addNode(NONE, NONE);
+        for(int c = 0; c < lengths.length; c++) {
+            //follow the path of the code, adding the nodes that are missing
+            int node = top;
+            for(int i = lengths[c] - 1; i >= 0; i--) {
+                boolean goRight = ((codes[c] >>> i) & 1) == 1;
+                int next = goRight ? right[node] : left[node];
+                if(next == NONE) {
+                    next = i == 0 ? addLeaf((char) c) : addNode(NONE, NONE);
+                    if(goRight) {
+                        right[node] = next;
+                    } else {
+                        left[node] = next;
+                    }
+                }
+                node = next;
             }
         }
-        root = treeStack.pop().root;
-        current = root;
+        setRoot(top);
     }
 
     /**
-     * Makes a new Huffman Tree by combining two subtrees at a new Node
-     * @param b1 the left subtree
-     * @param d the data in the root
-     * @param b2 the right subtree
+     * Adds a leaf to the tree. The node added last is the root unless
+     * setRoot() is called.
+     * @param d the character in the leaf
+     * @return the index of the leaf
      */
-    public HuffmanTree(HuffmanTree b1, char d, HuffmanTree b2) {
-        root = new Node(b1.root, d, b2.root);
+    public int addLeaf(char d) {
+        int node = add(NONE, NONE);
+        data[node] = d;
+        return node;
+    }
+
+    /**
+     * Adds a non-leaf node to the tree. The node added last is the root
+     * unless setRoot() is called.
+     * @param l the index of the left child
+     * @param r the index of the right child
+     * @return the index of the node
+     */
+    public int addNode(int l, int r) {
+        int node = add(l, r);
+        data[node] = NON_LEAF;
+        return node;
+    }
+
+    /**
+     * Adds a node, growing the arrays if they are full
+     * @param l the index of the left child
+     * @param r the index of the right child
+     * @return the index of the node
+     */
+    private int add(int l, int r) {
+        if(size == left.length) {
+            left = Arrays.copyOf(left, size * 2);
+            right = Arrays.copyOf(right, size * 2);
+            data = Arrays.copyOf(data, size * 2);
+        }
+        left[size] = l;
+        right[size] = r;
+        root = size;
+        current = size;
+        return size++;
+    }
+
+    /**
+     * Makes a node the root of the tree
+     * @param node the index of the node
+     */
+    public void setRoot(int node) {
+        root = node;
+        current = node;
     }
 
     /*
@@ -103,7 +154,7 @@ public class HuffmanTree {
      * PRE: the current node is not a leaf
      */
     public void moveToLeft() {
-        current = current.left;
+        current = left[current];
     }
 
     /**
@@ -111,7 +162,7 @@ public class HuffmanTree {
      * PRE: the current node is not a leaf
      */
     public void moveToRight() {
-        current = current.right;
+        current = right[current];
     }
 
     /**
@@ -119,7 +170,7 @@ public class HuffmanTree {
      * @return true if the current node is the root
      */
     public boolean atRoot() {
-        return current.equals(root);
+        return current == root;
     }
 
     /**
@@ -127,7 +178,7 @@ public class HuffmanTree {
      * @return true if current references a leaf
      */
     public boolean atLeaf() {
-        return current.left == null && current.right == null;
+        return left[current] == NONE && right[current] == NONE;
     }
 
     /**
@@ -135,55 +186,101 @@ public class HuffmanTree {
      * @return the data in current
      */
     public char current() {
-        return current.data;
+        return data[current];
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int size() {
+        return size;
     }
 
     /**
      * Makes an array of Strings that represents the path to each character
      * in the Huffman Tree. 0 represents left and 1 represents right.
-     * @return an array of 128 strings(some of which could be null) with all paths from the
+     * @return an array of ALPHABET strings(some of which could be null) with all paths from the
      *         root to the leaves.
      */
     public String[] pathsToLeaves() {
-        String[] allPaths = new String[128];
-        pathReader(root, allPaths, "");
+        String[] allPaths = new String[ALPHABET];
+        long[] codes = new long[ALPHABET];
+        int[] lengths = new int[ALPHABET];
+        codesToLeaves(codes, lengths);
+        char[] path = new char[64];
+        for(int c = 0; c < ALPHABET; c++) {
+            if(lengths[c] > 0 || (size == 1 && data[root] == c)) {
+                //spell out the code one bit at a time
+                for(int i = 0; i < lengths[c]; i++) {
+                    path[i] = ((codes[c] >>> (lengths[c] - 1 - i)) & 1) == 1 ? '1' : '0';
+                }
+                allPaths[c] = new String(path, 0, lengths[c]);
+            }
+        }
         return allPaths;
     }
 
     /**
-     * A recursive method that loads the allP String array with the
-     * path to each leaf.
+     * Finds the path to each character in the Huffman Tree as a number, with
+     * the first step of the path in the most significant bit. 0 represents left
+     * and 1 represents right.
+     * @param codes filled with the path to each leaf, indexed by character
+     * @param lengths filled with the number of steps in each path, characters
+     *                that are not in the tree are left at 0
+     */
+    public void codesToLeaves(long[] codes, int[] lengths) {
+        if(root != NONE) {
+            codeReader(root, codes, lengths, 0, 0);
+        }
+    }
+
+    /**
+     * A recursive method that loads the codes and lengths of each leaf.
      * @param node the next node in the Tree
-     * @param allP the paths to each leaf
-     * @param path the String representation of the path
+     * @param codes the paths to each leaf
+     * @param lengths the lengths of the paths
+     * @param code the path to node
+     * @param depth the length of the path to node
      */
-    private void pathReader(Node node, String[] allP, String path) {
-        //store path representation in the array if at a leaf
-        if(node.left == null && node.right == null) {
-            allP[node.data] = path;
+    private void codeReader(int node, long[] codes, int[] lengths, long code, int depth) {
+        //store the path if at a leaf
+        if(left[node] == NONE && right[node] == NONE) {
+            codes[data[node]] = code;
+            lengths[data[node]] = depth;
             return;
         }
-        //go to child nodes
-        pathReader(node.left, allP,path + "0");
-        pathReader(node.right, allP,path + "1");
+        //go to child nodes, a node from an incomplete code may miss one
+        if(left[node] != NONE) {
+            codeReader(left[node], codes, lengths, code << 1, depth + 1);
+        }
+        if(right[node] != NONE) {
+            codeReader(right[node], codes, lengths, (code << 1) | 1, depth + 1);
+        }
     }
 
     /**
      * @return a string representation of the tree using the postorder format.
      */
     public String toString() {
-        return treeReader(root);
+        StringBuilder result = new StringBuilder();
+        if(root != NONE) {
+            treeReader(root, result);
+        }
+        return result.toString();
     }
 
     /**
-     * A recursive method to read and return a string based on postorder traversal
+     * A recursive method to read a string based on postorder traversal
      * @param node the next node to read
-     * @return a post-order representation of a Huffman Tree
+     * @param result where the post-order representation of a Huffman Tree is added
      */
-    private String treeReader(Node node) {
-        if(node == null) {
-            return "";
+    private void treeReader(int node, StringBuilder result) {
+        if(left[node] != NONE) {
+            treeReader(left[node], result);
+        }
+        if(right[node] != NONE) {
+            treeReader(right[node], result);
         }
-        return treeReader(node.left) + treeReader(node.right) + node.data;
+        result.append(data[node]);
     }
 }
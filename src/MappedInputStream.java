@@ -0,0 +1,114 @@
+/*
+* An InputStream that reads a file through memory mapped windows, so files
+* larger than a single mapping (2 GB) can be read without copying them
+* through a FileInputStream.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class MappedInputStream extends InputStream {
+    static final int WINDOW = 1 << 30;
+
+    private FileChannel file;
+    private MappedByteBuffer window;
+    private long windowStart;   //the position in the file of the start of the window
+    private long size;
+    private long mark;          //the position in the file given to mark()
+
+    /**
+     * Maps the start of the file
+     * @param file the file to read
+     */
+    public MappedInputStream(FileChannel file) throws IOException {
+        this.file = file;
+        size = file.size();
+        windowStart = 0;
+        window = map(0);
+    }
+
+    /**
+     * Maps the window that starts at position
+     * @param position the position in the file
+     * @return the mapped window
+     */
+    private MappedByteBuffer map(long position) throws IOException {
+        return file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+    }
+
+    /**
+     * Moves to the next window if the current one has been read
+     * @return false at the end of the file
+     */
+    private boolean nextWindow() throws IOException {
+        if(window.hasRemaining()) {
+            return true;
+        }
+        windowStart += window.limit();
+        if(windowStart >= size) {
+            return false;
+        }
+        window = map(windowStart);
+        return true;
+    }
+
+    /**
+     * @return the next byte or -1 at the end of the file
+     */
+    public int read() throws IOException {
+        return nextWindow() ? window.get() & 0xFF : -1;
+    }
+
+    /**
+     * Copies the next bytes of the file into b
+     * @param b the array the bytes are copied to
+     * @param off the first position in b
+     * @param len the largest number of bytes to copy
+     * @return the number of bytes copied or -1 at the end of the file
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(!nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * @return true, a mapped file can go back to a mark
+     */
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * Remembers the current position
+     * @param readLimit not used, any number of bytes can be read before reset()
+     */
+    public void mark(int readLimit) {
+        mark = windowStart + window.position();
+    }
+
+    /**
+     * Goes back to the position given to mark()
+     */
+    public void reset() throws IOException {
+        if(mark < windowStart || mark > windowStart + window.limit()) {
+            windowStart = mark - mark % WINDOW;
+            window = map(windowStart);
+        }
+        window.position((int) (mark - windowStart));
+    }
+
+    /**
+     * closes the file
+     */
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+* An OutputStream that writes a file of a known size through memory mapped
+* windows, so files larger than a single mapping (2 GB) can be written
+* without copying them through a FileOutputStream.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class MappedOutputStream extends OutputStream {
+    private FileChannel file;
+    private MappedByteBuffer window;
+    private long windowStart;   //the position in the file of the start of the window
+    private long size;
+
+    /**
+     * Maps the start of the file
+     * @param file the file to write, opened for reading and writing
+     * @param size the final size of the file
+     */
+    public MappedOutputStream(FileChannel file, long size) throws IOException {
+        this.file = file;
+        this.size = size;
+        windowStart = 0;
+        window = map(0);
+    }
+
+    /**
+     * Maps the window that starts at position
+     * @param position the position in the file
+     * @return the mapped window
+     */
+    private MappedByteBuffer map(long position) throws IOException {
+        return file.map(FileChannel.MapMode.READ_WRITE, position,
+                Math.min(MappedInputStream.WINDOW, size - position));
+    }
+
+    /**
+     * Moves to the next window if the current one is full
+     */
+    private void nextWindow() throws IOException {
+        if(!window.hasRemaining()) {
+            windowStart += window.limit();
+            if(windowStart >= size) {
+                throw new IOException("more than " + size + " bytes written");
+            }
+            window = map(windowStart);
+        }
+    }
+
+    /**
+     * Writes one byte
+     * @param b the byte
+     */
+    public void write(int b) throws IOException {
+        nextWindow();
+        window.put((byte) b);
+    }
+
+    /**
+     * Copies bytes into the file
+     * @param b the bytes
+     * @param off the first position in b
+     * @param len the number of bytes to copy
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            nextWindow();
+            int n = Math.min(len, window.remaining());
+            window.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * closes the file
+     */
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
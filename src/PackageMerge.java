@@ -0,0 +1,133 @@
+/*
+* Finds the optimal code lengths for a set of character frequencies when no
+* code may be longer than a given number of bits, using the package-merge
+* algorithm. Each level holds the characters sorted by frequency merged with
+* the packages (pairs) of the level below; the 2n - 2 cheapest items of the
+* last level decide how many bits each character gets.
+*
+* The levels are kept between calls, so an encoder that limits the code of
+* every block finds the lengths without allocating.
+ */
+import java.util.*;
+
+public class PackageMerge {
+    private int maxLength;
+    private long[] sorted;      //the characters that occur sorted by frequency, the character in the low bits
+    private int[] chars;
+    private long[] leafWeights;
+    private long[][] weights;   //the weight of each item of each level
+    private int[][] children;   //the first packaged item of the level below, or -(leaf + 1) for a leaf
+
+    /**
+     * Makes the levels for finding code lengths
+     * @param alphabet the number of different characters
+     * @param maxLength the longest code allowed
+     */
+    public PackageMerge(int alphabet, int maxLength) {
+        this.maxLength = maxLength;
+        sorted = new long[alphabet];
+        chars = new int[alphabet];
+        leafWeights = new long[alphabet];
+        weights = new long[maxLength][2 * alphabet];
+        children = new int[maxLength][2 * alphabet];
+    }
+
+    /**
+     * Finds the code lengths
+     * @param frequencies the frequency of each character
+     * @param maxLength the longest code allowed
+     * @return the length of each character's code, 0 for characters with a
+     *         frequency of 0
+     */
+    public static int[] codeLengths(long[] frequencies, int maxLength) {
+        int[] lengths = new int[frequencies.length];
+        new PackageMerge(frequencies.length, maxLength).codeLengths(frequencies, lengths);
+        return lengths;
+    }
+
+    /**
+     * Finds the code lengths into an array
+     * @param frequencies the frequency of each character, for at most as many
+     *        characters as the levels were made for
+     * @param lengths filled with the length of each character's code, 0 for
+     *        characters with a frequency of 0
+     * PRE: every frequency fits in 63 bits less the bits of a character
+     */
+    public void codeLengths(long[] frequencies, int[] lengths) {
+        Arrays.fill(lengths, 0);
+
+        //sort the characters that occur by frequency, the character is kept in the low bits
+        int shift = 32 - Integer.numberOfLeadingZeros(frequencies.length - 1);
+        int n = 0;
+        for(int c = 0; c < frequencies.length; c++) {
+            if(frequencies[c] > 0) {
+                sorted[n++] = (frequencies[c] << shift) | c;
+            }
+        }
+        long mask = (1L << shift) - 1;
+        if(n == 0) {
+            return;
+        }
+        if(n == 1) {
+            lengths[(int) (sorted[0] & mask)] = 1;
+            return;
+        }
+        if(n > 1L << Math.min(maxLength, 62)) {
+            throw new IllegalArgumentException(n + " characters do not fit in codes of " + maxLength + " bits");
+        }
+        Arrays.sort(sorted, 0, n);
+        for(int i = 0; i < n; i++) {
+            chars[i] = (int) (sorted[i] & mask);
+            leafWeights[i] = sorted[i] >>> shift;
+        }
+
+        /*
+        Level 0 is the leaves. Every other level merges the leaves with the
+        packages of the level below it. For each item of a level, child[item]
+        is the index of the first of the two packaged items of the level below,
+        or -(leaf + 1) for a leaf.
+        */
+        System.arraycopy(leafWeights, 0, weights[0], 0, n);
+        for(int i = 0; i < n; i++) {
+            children[0][i] = -(i + 1);
+        }
+        int size = n;       //the number of items of the level below
+        for(int level = 1; level < maxLength; level++) {
+            long[] below = weights[level - 1];
+            int packages = size / 2;
+            long[] weight = weights[level];
+            int[] child = children[level];
+            int leaf = 0;
+            int pack = 0;
+            for(int i = 0; i < n + packages; i++) {
+                long packWeight = pack < packages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+                if(leaf < n && leafWeights[leaf] <= packWeight) {
+                    weight[i] = leafWeights[leaf];
+                    child[i] = -(leaf + 1);
+                    leaf++;
+                } else {
+                    weight[i] = packWeight;
+                    child[i] = 2 * pack;
+                    pack++;
+                }
+            }
+            size = n + packages;
+        }
+
+        //select the 2n - 2 cheapest items of the top level, then the items they package
+        int selected = 2 * n - 2;
+        for(int level = maxLength - 1; level >= 0; level--) {
+            int packaged = 0;
+            for(int i = 0; i < selected; i++) {
+                int child = children[level][i];
+                if(child < 0) {
+                    //every level a character is selected in adds one bit to its code
+                    lengths[chars[-child - 1]]++;
+                } else {
+                    packaged += 2;
+                }
+            }
+            selected = packaged;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+* Checks a batch of files encoded by HuffmanBatch, into files of their own or
+* into one archive, decodes back to the same files, and that outputs written
+* inside the input directory are not taken as input. Run with the classes of
+* src on the class path; it exits with 1 if a check fails.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class HuffmanBatchTest {
+
+    /**
+     * @param root a directory
+     * @return the contents of every file under it, by its name relative to it
+     */
+    private static Map<String, byte[]> files(Path root) throws IOException {
+        Map<String, byte[]> files = new TreeMap<>();
+        try(Stream<Path> walk = Files.walk(root)) {
+            for(Path file : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                files.put(root.relativize(file).toString(), Files.readAllBytes(file));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @param name what is being checked
+     * @param expected the files that should be there
+     * @param found the files that are there
+     */
+    private static void expectFiles(String name, Map<String, byte[]> expected, Map<String, byte[]> found) {
+        if(!expected.keySet().equals(found.keySet())) {
+            throw new AssertionError(name + " has the files " + found.keySet() + ", not " + expected.keySet());
+        }
+        for(String file : expected.keySet()) {
+            if(!Arrays.equals(expected.get(file), found.get(file))) {
+                throw new AssertionError(name + " has a different " + file);
+            }
+        }
+    }
+
+    /**
+     * Writes the files of a batch
+     * @param input the directory they are written in
+     */
+    private static void write(Path input) throws IOException {
+        Random random = new Random(17);
+        Files.createDirectories(input.resolve("sub"));
+        Files.write(input.resolve("a.txt"), HuffmanEncoderTest.text(random, 50000));
+        Files.write(input.resolve("sub/b.txt"), HuffmanEncoderTest.text(random, 3000));
+        Files.write(input.resolve("empty"), new byte[0]);
+        byte[] noise = new byte[20000];
+        random.nextBytes(noise);
+        Files.write(input.resolve("sub/noise.bin"), noise);
+    }
+
+    /**
+     * Encodes a directory both ways and decodes it back
+     * @param directory the directory everything is written under
+     */
+    private static void batch(Path directory) throws IOException {
+        Path input = directory.resolve("in");
+        write(input);
+        Map<String, byte[]> original = files(input);
+
+        //the outputs go inside the input directory, and must not be encoded again by the same run
+        Path encoded = input.resolve("encoded");
+        HuffmanBatch batch = new HuffmanBatch(2, 8192, 0, 16, 4);
+        batch.encode(input, encoded);
+        Path archived = directory.resolve("archived");
+        write(archived);
+        Path archive = archived.resolve("all.huf");
+        batch.encodeArchive(archived, archive);
+        if(batch.getFailed() != 0) {
+            throw new AssertionError(batch.getFailed() + " files failed to encode");
+        }
+        if(files(encoded).size() != original.size()) {
+            throw new AssertionError("the encoded directory has " + files(encoded).keySet());
+        }
+
+        Path decoded = directory.resolve("decoded");
+        batch.decode(encoded, decoded);
+        expectFiles("the decoded files", original, files(decoded));
+        Path unpacked = directory.resolve("unpacked");
+        batch.decodeArchive(archive, unpacked);
+        expectFiles("the unpacked archive", original, files(unpacked));
+        if(batch.getFailed() != 0) {
+            throw new AssertionError(batch.getFailed() + " files failed to decode");
+        }
+
+        //a member with a changed byte fails on its own, the others still decode
+        byte[] bytes = Files.readAllBytes(archive);
+        bytes[HuffmanFormat.HEADER_BYTES + 40] ^= 0x10;
+        Path changed = directory.resolve("changed.huf");
+        Files.write(changed, bytes);
+        HuffmanBatch check = new HuffmanBatch(2, 8192, 0, 0, 0);
+        check.decodeArchive(changed, directory.resolve("changed"));
+        if(check.getFailed() != 1) {
+            throw new AssertionError(check.getFailed() + " members of an archive with one changed byte failed");
+        }
+        if(files(directory.resolve("changed")).size() != original.size() - 1) {
+            throw new AssertionError("a member that failed left its output file");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("HuffmanBatchTest");
+        try {
+            batch(directory);
+        } finally {
+            try(Stream<Path> walk = Files.walk(directory)) {
+                for(Path file : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,228 @@
+/*
+* Checks every layout HuffmanEncode writes decodes back to the same file, that
+* verify() passes an intact file and fails a corrupt one, and that a corrupt
+* block index or a failed decode leaves no output file behind. Run with the
+* classes of src on the class path; it exits with 1 if a check fails.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HuffmanDecodeTest {
+    private static Path directory;
+    private static byte[] data;
+    private static Path original;
+
+    /**
+     * A check that must fail with an IOException
+     */
+    private interface Failing {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a check that must fail with an IOException
+     * @param name what is being checked
+     * @param check the check
+     */
+    private static void expectFailure(String name, Failing check) {
+        try {
+            check.run();
+        } catch(IOException e) {
+            return;
+        }
+        throw new AssertionError(name + " did not fail");
+    }
+
+    /**
+     * @param file a decoded file
+     * @param name what is being checked
+     */
+    private static void expectOriginal(Path file, String name) throws IOException {
+        if(!Arrays.equals(data, Files.readAllBytes(file))) {
+            throw new AssertionError(name + " did not decode to the same characters");
+        }
+    }
+
+    /**
+     * Writes a copy of a file with one byte changed
+     * @param file the file
+     * @param position the position of the byte
+     * @return the copy
+     */
+    private static Path changed(Path file, int position) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[position] ^= 0x10;
+        Path copy = directory.resolve(file.getFileName() + ".changed");
+        Files.write(copy, bytes);
+        return copy;
+    }
+
+    /**
+     * Writes a copy of a file without its last bytes
+     * @param file the file
+     * @param missing the number of bytes left off
+     * @return the copy
+     */
+    private static Path truncated(Path file, int missing) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Path copy = directory.resolve(file.getFileName() + ".truncated");
+        Files.write(copy, Arrays.copyOf(bytes, bytes.length - missing));
+        return copy;
+    }
+
+    /**
+     * Checks an encoded file passes verify(), and a changed or truncated copy
+     * of it fails
+     * @param file the encoded file
+     * @param name what is being checked
+     */
+    private static void checkVerify(Path file, String name) throws IOException {
+        HuffmanDecode.verify(file.toString(), HuffmanFormat.ANY, 2);
+        int middle = (int) (Files.size(file) / 2);
+        expectFailure("verify of " + name + " with a changed byte",
+                () -> HuffmanDecode.verify(changed(file, middle).toString(), HuffmanFormat.ANY, 2));
+        expectFailure("verify of " + name + " cut short",
+                () -> HuffmanDecode.verify(truncated(file, 3).toString(), HuffmanFormat.ANY, 2));
+    }
+
+    /**
+     * The SINGLE layout, decoded with the table decoder from a file, through
+     * memory mapped windows and from a stream
+     */
+    private static void single() throws IOException {
+        Path encoded = directory.resolve("single.huf");
+        Path decoded = directory.resolve("single.out");
+        new HuffmanEncode(original.toString(), encoded.toString());
+        new HuffmanDecode(encoded.toString(), decoded.toString());
+        expectOriginal(decoded, "the SINGLE layout");
+        HuffmanDecode.decodeMapped(encoded.toString(), decoded.toString());
+        expectOriginal(decoded, "the SINGLE layout through mapped windows");
+
+        Path limited = directory.resolve("limited.huf");
+        new HuffmanEncode(original.toString(), limited.toString(), 9);
+        try(InputStream in = Files.newInputStream(limited); OutputStream out = Files.newOutputStream(decoded)) {
+            HuffmanDecode.decodeSingle(in, out);
+        }
+        expectOriginal(decoded, "the SINGLE layout with codes of at most 9 bits");
+        checkVerify(encoded, "the SINGLE layout");
+
+        //a file that fails to decode leaves nothing behind
+        Path cut = truncated(encoded, 100);
+        Files.deleteIfExists(decoded);
+        expectFailure("a truncated SINGLE file", () -> new HuffmanDecode(cut.toString(), decoded.toString()));
+        if(Files.exists(decoded)) {
+            throw new AssertionError("a failed decode left its output file");
+        }
+    }
+
+    /**
+     * The BLOCKS layout, decoded in parallel through the block index and as a
+     * stream
+     */
+    private static void blocks() throws IOException {
+        Path encoded = directory.resolve("blocks.huf");
+        Path decoded = directory.resolve("blocks.out");
+        try(InputStream in = Files.newInputStream(original); OutputStream out = Files.newOutputStream(encoded)) {
+            HuffmanEncode.encodeStream(in, out, 40000, 2, 0, 16, 4);
+        }
+        HuffmanDecode.decodeFile(encoded.toString(), decoded.toString(), 2);
+        expectOriginal(decoded, "the BLOCKS layout");
+        try(InputStream in = Files.newInputStream(encoded); OutputStream out = Files.newOutputStream(decoded)) {
+            HuffmanDecode.decodeStream(in, out);
+        }
+        expectOriginal(decoded, "the BLOCKS layout as a stream");
+        checkVerify(encoded, "the BLOCKS layout");
+    }
+
+    /**
+     * The ADAPTIVE layout
+     */
+    private static void adaptive() throws IOException {
+        Path encoded = directory.resolve("adaptive.huf");
+        Path decoded = directory.resolve("adaptive.out");
+        try(InputStream in = Files.newInputStream(original); OutputStream out = Files.newOutputStream(encoded)) {
+            HuffmanEncode.encodeAdaptive(in, out);
+        }
+        try(InputStream in = Files.newInputStream(encoded); OutputStream out = Files.newOutputStream(decoded)) {
+            HuffmanDecode.decodeAdaptive(in, out);
+        }
+        expectOriginal(decoded, "the ADAPTIVE layout");
+        checkVerify(encoded, "the ADAPTIVE layout");
+    }
+
+    /**
+     * A block index that does not match the blocks is rejected before anything
+     * is decoded, and the output file is not left behind
+     */
+    private static void blockIndex() throws IOException {
+        Path encoded = directory.resolve("blocks.huf");
+        Path decoded = directory.resolve("index.out");
+        byte[] bytes = Files.readAllBytes(encoded);
+        long position = ByteBuffer.wrap(bytes).getLong(bytes.length - 8);
+
+        //the character count of the first block
+        byte[] length = bytes.clone();
+        ByteBuffer.wrap(length).putInt((int) position + 4 + 16, Integer.MAX_VALUE);
+        Path huge = directory.resolve("huge.huf");
+        Files.write(huge, length);
+        expectFailure("a block index with a block of 2^31 characters",
+                () -> HuffmanDecode.decodeFile(huge.toString(), decoded.toString(), 2));
+        expectFailure("random access with a block of 2^31 characters", () -> new HuffmanRandomAccess(huge.toString()));
+
+        //the offset of the second block
+        byte[] offset = bytes.clone();
+        ByteBuffer.wrap(offset).putLong((int) position + 4 + 20, 100);
+        Path moved = directory.resolve("moved.huf");
+        Files.write(moved, offset);
+        expectFailure("a block index with a block in the wrong place",
+                () -> HuffmanDecode.decodeFile(moved.toString(), decoded.toString(), 2));
+
+        //the offset of the index
+        byte[] trailer = bytes.clone();
+        ByteBuffer.wrap(trailer).putLong(bytes.length - 8, position - 20);
+        Path lost = directory.resolve("lost.huf");
+        Files.write(lost, trailer);
+        expectFailure("a block index in the wrong place",
+                () -> HuffmanDecode.decodeFile(lost.toString(), decoded.toString(), 2));
+        if(Files.exists(decoded)) {
+            throw new AssertionError("a rejected block index left its output file");
+        }
+    }
+
+    /**
+     * A file without the header, or with another version of it, is not read
+     */
+    private static void header() throws IOException {
+        Path encoded = directory.resolve("single.huf");
+        byte[] bytes = Files.readAllBytes(encoded);
+        Path headless = directory.resolve("headless.huf");
+        Files.write(headless, Arrays.copyOfRange(bytes, HuffmanFormat.HEADER_BYTES, bytes.length));
+        expectFailure("a file without a header", () -> HuffmanDecode.verify(headless.toString(), HuffmanFormat.ANY, 1));
+        Path version = changed(encoded, 4);
+        expectFailure("a file of another version", () -> HuffmanDecode.verify(version.toString(), HuffmanFormat.ANY, 1));
+    }
+
+    public static void main(String[] args) throws IOException {
+        directory = Files.createTempDirectory("HuffmanDecodeTest");
+        data = HuffmanEncoderTest.text(new Random(11), 200000);
+        original = directory.resolve("original.txt");
+        Files.write(original, data);
+        try {
+            single();
+            blocks();
+            adaptive();
+            blockIndex();
+            header();
+        } finally {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for(Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,111 @@
+/*
+* Checks messages encoded with a trained HuffmanDictionary decode back to the
+* same characters, with the dictionary and through a directory of
+* dictionaries, and that a message is not decoded with the wrong dictionary.
+* Run with the classes of src on the class path; it exits with 1 if a check
+* fails.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HuffmanDictionaryTest {
+
+    /**
+     * A check that must fail with an IOException
+     */
+    private interface Failing {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a check that must fail with an IOException
+     * @param name what is being checked
+     * @param check the check
+     */
+    private static void expectFailure(String name, Failing check) {
+        try {
+            check.run();
+        } catch(IOException e) {
+            return;
+        }
+        throw new AssertionError(name + " did not fail");
+    }
+
+    /**
+     * @param dictionary the dictionary
+     * @param message the characters
+     * @return the encoded message, exactly as long as the dictionary wrote it
+     */
+    private static byte[] encode(HuffmanDictionary dictionary, byte[] message) {
+        byte[] encoded = new byte[dictionary.maxEncodedLength(message.length)];
+        return Arrays.copyOf(encoded, dictionary.encode(message, 0, message.length, encoded, 0));
+    }
+
+    /**
+     * Trains a dictionary on samples, encodes messages with it, some with
+     * characters the samples did not have, and decodes them again
+     * @param directory where the samples and the dictionary are kept
+     */
+    private static void messages(Path directory) throws IOException {
+        Random random = new Random(5);
+        List<String> samples = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            Path sample = directory.resolve("sample" + i);
+            Files.write(sample, HuffmanEncoderTest.text(random, 2000));
+            samples.add(sample.toString());
+        }
+        HuffmanDictionary trained = HuffmanDictionary.train(samples, 12);
+        Path file = trained.save(directory);
+        HuffmanDictionary loaded = HuffmanDictionary.load(file);
+        if(loaded.getId() != trained.getId()) {
+            throw new AssertionError("a saved dictionary was loaded with another ID");
+        }
+
+        byte[][] messages = {
+                new byte[0],
+                "the lazy dog".getBytes("UTF-8"),
+                HuffmanEncoderTest.text(random, 300),
+                "characters the samples never had: {}[]<>#@\u00e9".getBytes("UTF-8"),
+        };
+        for(byte[] message : messages) {
+            byte[] encoded = encode(trained, message);
+            byte[] decoded = new byte[HuffmanDictionary.decodedLength(encoded, 0)];
+            loaded.decode(encoded, 0, encoded.length, decoded, 0);
+            if(!Arrays.equals(message, decoded)) {
+                throw new AssertionError("a message did not decode to the same characters");
+            }
+            if(!Arrays.equals(message, HuffmanDictionary.decode(directory, encoded))) {
+                throw new AssertionError("a message did not decode through the directory of dictionaries");
+            }
+        }
+
+        //a dictionary trained on other samples has another ID
+        Path other = directory.resolve("other");
+        Files.write(other, new byte[] {'a', 'a', 'a', 'b'});
+        HuffmanDictionary wrong = HuffmanDictionary.train(Collections.singletonList(other.toString()), 0);
+        byte[] encoded = encode(wrong, messages[1]);
+        expectFailure("a message decoded with the wrong dictionary",
+                () -> loaded.decode(encoded, 0, encoded.length, new byte[messages[1].length], 0));
+        expectFailure("a message whose dictionary is not in the directory",
+                () -> HuffmanDictionary.decode(directory, encoded));
+        byte[] right = encode(trained, messages[2]);
+        expectFailure("a truncated message", () -> HuffmanDictionary.decode(directory,
+                Arrays.copyOf(right, right.length / 2)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("HuffmanDictionaryTest");
+        try {
+            messages(directory);
+        } finally {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for(Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+* Checks blocks encoded by HuffmanEncoder decode back to the same characters
+* in every mode, and that a corrupt or truncated block fails instead of
+* decoding into the wrong characters. Run with the classes of src on the
+* class path; it exits with 1 if a check fails.
+ */
+import java.io.*;
+import java.util.*;
+
+public class HuffmanEncoderTest {
+    private static final int MODE = 16;     //the position of the mode in a block's header
+
+    /**
+     * A check that must fail with an IOException
+     */
+    private interface Failing {
+        void run() throws IOException;
+    }
+
+    /**
+     * Encodes a block, decodes it again and compares the two
+     * @param encoder the encoder
+     * @param data the characters
+     * @param name what is being checked
+     * @return the encoded block, exactly as long as the encoder wrote it
+     */
+    private static byte[] roundTrip(HuffmanEncoder encoder, byte[] data, String name) throws IOException {
+        byte[] encoded = new byte[HuffmanEncoder.maxEncodedLength(data.length)];
+        int size = encoder.encode(data, 0, data.length, encoded, 0);
+        byte[] decoded = new byte[data.length];
+        int length = new HuffmanDecoder().decode(encoded, 0, size, decoded, 0);
+        if(length != data.length || !Arrays.equals(data, decoded)) {
+            throw new AssertionError(name + " did not decode to the same characters");
+        }
+        return Arrays.copyOf(encoded, size);
+    }
+
+    /**
+     * Encodes a block and checks it round trips in the expected mode, and
+     * that a changed or missing byte makes it fail
+     * @param encoder the encoder
+     * @param data the characters
+     * @param mode the mode the block must be coded in
+     * @param name what is being checked
+     */
+    private static void checkMode(HuffmanEncoder encoder, byte[] data, int mode, String name) throws IOException {
+        byte[] encoded = roundTrip(encoder, data, name);
+        if(encoded[MODE] != mode) {
+            throw new AssertionError(name + " was coded in mode " + encoded[MODE] + ", not " + mode);
+        }
+        byte[] decoded = new byte[data.length];
+
+        //every byte of the body is covered by the bit count or the checksum
+        byte[] changed = encoded.clone();
+        changed[(HuffmanEncoder.BLOCK_HEADER + changed.length) / 2] ^= 0x10;
+        expectFailure(name + " with a changed byte", () -> new HuffmanDecoder().decode(changed, 0, changed.length,
+                decoded, 0));
+        expectFailure(name + " cut short", () -> new HuffmanDecoder().decode(encoded, 0, encoded.length - 1,
+                decoded, 0));
+    }
+
+    /**
+     * Runs a check that must fail with an IOException
+     * @param name what is being checked
+     * @param check the check
+     */
+    private static void expectFailure(String name, Failing check) {
+        try {
+            check.run();
+        } catch(IOException e) {
+            return;
+        }
+        throw new AssertionError(name + " did not fail");
+    }
+
+    /**
+     * @param random the source of the characters
+     * @param size the number of characters
+     * @return words from a small vocabulary, separated by spaces
+     */
+    static byte[] text(Random random, int size) {
+        String[] words = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "and", "then"};
+        byte[] text = new byte[size];
+        int i = 0;
+        while(i < size) {
+            String word = words[random.nextInt(words.length)] + " ";
+            for(int j = 0; j < word.length() && i < size; j++) {
+                text[i++] = (byte) word.charAt(j);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Every mode a block can be coded in, each with data it is the smallest for
+     */
+    private static void everyMode() throws IOException {
+        Random random = new Random(7);
+        checkMode(new HuffmanEncoder(), text(random, 1000), HuffmanEncoder.HUFFMAN, "a small block of text");
+        checkMode(new HuffmanEncoder(), text(random, 1 << 16), HuffmanEncoder.STREAMS, "a large block of text");
+        checkMode(new HuffmanEncoder(0, HuffmanEncoder.MAX_PAIRS), text(random, 1 << 16), HuffmanEncoder.PAIRS,
+                "text with pairs");
+
+        //each character is one of two that depend on the one before it
+        byte[] chain = new byte[1 << 16];
+        for(int i = 1; i < chain.length; i++) {
+            chain[i] = (byte) ((chain[i - 1] * 2 + 1 + random.nextInt(2)) & 0x3F);
+        }
+        checkMode(new HuffmanEncoder(0, 0, HuffmanEncoder.MAX_CLUSTERS), chain, HuffmanEncoder.CONTEXTS,
+                "characters that depend on the one before");
+
+        byte[] noise = new byte[1 << 16];
+        random.nextBytes(noise);
+        checkMode(new HuffmanEncoder(), noise, HuffmanEncoder.STORED, "random data");
+
+        byte[] runs = new byte[1 << 16];
+        for(int i = 0; i < runs.length; ) {
+            byte c = (byte) random.nextInt();
+            for(int run = 50 + random.nextInt(200); run > 0 && i < runs.length; run--) {
+                runs[i++] = c;
+            }
+        }
+        checkMode(new HuffmanEncoder(), runs, HuffmanEncoder.RUNS, "long runs");
+
+        byte[] same = new byte[1 << 16];
+        Arrays.fill(same, (byte) 'x');
+        checkMode(new HuffmanEncoder(), same, HuffmanEncoder.REPEATED, "one repeated character");
+    }
+
+    /**
+     * Pairs with a short code length limit: the characters and the pairs
+     * together must not need longer codes than the limit allows
+     */
+    private static void pairsWithShortCodes() throws IOException {
+        Random random = new Random(42);
+        byte[] noise = new byte[1 << 16];
+        random.nextBytes(noise);
+        roundTrip(new HuffmanEncoder(8, 64), noise, "random data with -maxlength 8 -pairs 64");
+        roundTrip(new HuffmanEncoder(9, HuffmanEncoder.MAX_PAIRS), noise,
+                "random data with -maxlength 9 -pairs 256");
+
+        byte[] text = new byte[1 << 16];
+        for(int i = 0; i < text.length; i++) {
+            text[i] = (byte) "the quick brown fox jumps over the lazy dog ".charAt(random.nextInt(44));
+        }
+        roundTrip(new HuffmanEncoder(8, HuffmanEncoder.MAX_PAIRS), text, "text with -maxlength 8 -pairs 256");
+    }
+
+    /**
+     * A stream of blocks round trips, and a truncated stream or one whose
+     * block header claims too many characters fails
+     */
+    private static void streams() throws IOException {
+        byte[] data = text(new Random(3), 300000);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        new HuffmanEncoder(0, 16, 4).encode(new ByteArrayInputStream(data), encoded, 50000);
+        byte[] stream = encoded.toByteArray();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        new HuffmanDecoder().decode(new ByteArrayInputStream(stream), decoded);
+        if(!Arrays.equals(data, decoded.toByteArray())) {
+            throw new AssertionError("a stream of blocks did not decode to the same characters");
+        }
+
+        expectFailure("a stream cut short", () -> new HuffmanDecoder().decode(
+                new ByteArrayInputStream(stream, 0, stream.length - 10), OutputStream.nullOutputStream()));
+        byte[] huge = stream.clone();
+        huge[HuffmanFormat.HEADER_BYTES] = 0x7F;
+        expectFailure("a block that claims 2^31 characters", () -> new HuffmanDecoder().decode(
+                new ByteArrayInputStream(huge), OutputStream.nullOutputStream()));
+        byte[] headless = Arrays.copyOfRange(stream, HuffmanFormat.HEADER_BYTES, stream.length);
+        expectFailure("a stream without a header", () -> new HuffmanDecoder().decode(
+                new ByteArrayInputStream(headless), OutputStream.nullOutputStream()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        everyMode();
+        pairsWithShortCodes();
+        streams();
+        System.out.println("ok");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+* Checks reads through HuffmanRandomAccess give the same characters as the
+* file they were encoded from, at block boundaries, across blocks and at the
+* end of the file. Run with the classes of src on the class path; it exits
+* with 1 if a check fails.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HuffmanRandomAccessTest {
+    private static final int BLOCK = 10000;
+
+    /**
+     * Reads part of the file and compares it with the same part of the data
+     * @param file the file
+     * @param data the characters the file was encoded from
+     * @param offset the position of the first character
+     * @param length the number of characters to read
+     */
+    private static void checkRead(HuffmanRandomAccess file, byte[] data, long offset, int length) throws IOException {
+        byte[] read = new byte[length];
+        int count = file.read(offset, read, 0, length);
+        int expected = offset >= data.length ? -1 : (int) Math.min(length, data.length - offset);
+        if(length > 0 && count != expected) {
+            throw new AssertionError("a read of " + length + " at " + offset + " gave " + count + " characters, not "
+                    + expected);
+        }
+        for(int i = 0; i < count; i++) {
+            if(read[i] != data[(int) offset + i]) {
+                throw new AssertionError("a read of " + length + " at " + offset + " differs at " + i);
+            }
+        }
+    }
+
+    /**
+     * Reads the parts of an encoded file that matter for the block index
+     * @param encoded the encoded file
+     * @param data the characters it was encoded from
+     */
+    private static void reads(Path encoded, byte[] data) throws IOException {
+        try(HuffmanRandomAccess file = new HuffmanRandomAccess(encoded.toString(), 2)) {
+            if(file.length() != data.length) {
+                throw new AssertionError("the file has " + file.length() + " characters, not " + data.length);
+            }
+            checkRead(file, data, 0, 100);
+            checkRead(file, data, BLOCK - 1, 2);
+            checkRead(file, data, BLOCK, BLOCK);
+            checkRead(file, data, 3 * BLOCK + 17, 3 * BLOCK);
+            checkRead(file, data, data.length - 5, 100);
+            checkRead(file, data, data.length, 10);
+            //going back past what the cache holds decodes the block again
+            checkRead(file, data, 50, BLOCK);
+            checkRead(file, data, 0, data.length);
+            try {
+                file.read(-1, new byte[1], 0, 1);
+                throw new AssertionError("a read at -1 did not fail");
+            } catch(IndexOutOfBoundsException e) {
+                //expected
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path encoded = Files.createTempFile("HuffmanRandomAccessTest", ".huf");
+        try {
+            byte[] data = HuffmanEncoderTest.text(new Random(13), 7 * BLOCK + 1234);
+            try(OutputStream out = Files.newOutputStream(encoded)) {
+                new HuffmanEncoder(0, 16, 4).encode(new ByteArrayInputStream(data), out, BLOCK);
+            }
+            reads(encoded, data);
+        } finally {
+            Files.delete(encoded);
+        }
+        System.out.println("ok");
+    }
+}